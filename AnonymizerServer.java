@@ -0,0 +1,269 @@
+package anonymize;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Long-lived local HTTP server around a JavaAnonymizerStandalone, so that callers
+ * anonymizing one snippet at a time do not pay JVM startup and a cold JIT on every call
+ * 
+ * Only listens on the loopback address.  POST {@value #ANONYMIZE} with java code
+ * (UTF-8) as the body answers with the anonymized code, exactly as
+ * {@link JavaAnonymizerStandalone#anonymize(Reader, Writer)} would write it; each
+ * snippet is numbered on its own.  GET {@value #METRICS} answers with request counts
+ * and histograms of latency and batch size.
+ * 
+ * Requests are queued as they arrive.  One batcher thread takes whatever has queued up,
+ * up to {@value #MAX_BATCH} snippets, and anonymizes the batch on a ForkJoinPool.
+ * While a batch runs the next one queues, so batches grow with the load instead of
+ * every request paying for its own dispatch.  The pool only anonymizes: reading
+ * request bodies and writing responses, which block on the client, happen on the
+ * server's own I/O threads.
+ * 
+ * Try it with: curl --data-binary @Foo.java http://127.0.0.1:8117/anonymize
+ */
+public class AnonymizerServer implements Closeable {
+	public static final String ANONYMIZE = "/anonymize";
+	public static final String METRICS = "/metrics";
+	public static final int DEFAULT_PORT = 8117;
+	
+	static final int MAX_BATCH = 64;
+	//largest snippet accepted, in bytes
+	static final int MAX_BODY = 16 << 20;
+	
+	private final JavaAnonymizerStandalone anonymizer;
+	private final ForkJoinPool pool;
+	private final HttpServer server;
+	//reads request bodies and writes responses, so the pool's workers never wait on a client
+	private final ExecutorService io;
+	private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<Request>();
+	private final Thread batcher;
+	private volatile boolean running = true;
+	
+	//receipt to response, in microseconds
+	public final JavaAnonymizerStandalone.Histogram latency = new JavaAnonymizerStandalone.Histogram();
+	public final JavaAnonymizerStandalone.Histogram batchSizes = new JavaAnonymizerStandalone.Histogram();
+	private final AtomicLong rejected = new AtomicLong();
+	
+	/**
+	 * Constructs and starts a new AnonymizerServer
+	 * @param anonymizer
+	 * @param port: 0 for any free port
+	 * @param pool: anonymizes the batches
+	 * @throws IOException if the port cannot be bound
+	 */
+	public AnonymizerServer(final JavaAnonymizerStandalone anonymizer, final int port, final ForkJoinPool pool) throws IOException {
+		Objects.requireNonNull(anonymizer);
+		Objects.requireNonNull(pool);
+		this.anonymizer = anonymizer;
+		this.pool = pool;
+		
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext(ANONYMIZE, this::receive);
+		server.createContext(METRICS, this::metrics);
+		io = Executors.newFixedThreadPool(Math.max(2, pool.getParallelism()));
+		server.setExecutor(io);
+		
+		batcher = new Thread(this::batch, "anonymizer-batcher");
+		batcher.setDaemon(true);
+		batcher.start();
+		server.start();
+	}
+	
+	/** @return the port listened on */
+	public int port() { return server.getAddress().getPort(); }
+	
+	/**
+	 * A queued snippet
+	 */
+	private static final class Request {
+		final HttpExchange exchange;
+		final byte[] body;
+		final long received;
+		
+		Request(final HttpExchange exchange, final byte[] body, final long received) {
+			this.exchange = exchange;
+			this.body = body;
+			this.received = received;
+		}
+	}
+	
+	private void receive(final HttpExchange exchange) throws IOException {
+		final long received = System.nanoTime();
+		if(!exchange.getRequestMethod().equals("POST")) {
+			respond(exchange, 405, "POST java code to "+ANONYMIZE+"\n");
+			return;
+		}
+		
+		final byte[] body;
+		try (final InputStream in = exchange.getRequestBody()) {
+			body = in.readNBytes(MAX_BODY+1);
+		}
+		if(body.length > MAX_BODY) {
+			rejected.incrementAndGet();
+			respond(exchange, 413, "Snippets are limited to "+MAX_BODY+" bytes\n");
+			return;
+		}
+		
+		queue.add(new Request(exchange, body, received));
+	}
+	
+	private void batch() {
+		final ArrayList<Request> batch = new ArrayList<Request>(MAX_BATCH);
+		while(running) {
+			try {
+				batch.add(queue.take());
+			} catch (final InterruptedException e) {
+				//closing
+				continue;
+			}
+			queue.drainTo(batch, MAX_BATCH-1);
+			batchSizes.record(batch.size());
+			
+			try {
+				pool.invoke(new BatchTask(batch.toArray(new Request[batch.size()]), 0, batch.size()));
+			} catch (final RuntimeException e) {
+				//anonymize() answers its own failures, so this is the pool or the I/O threads refusing work; don't leave any client waiting
+				e.printStackTrace();
+				for(final Request request: batch) {
+					request.exchange.close();
+				}
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+	
+	/**
+	 * Anonymizes a request and hands the answer to the I/O threads
+	 * @param request
+	 */
+	private void anonymize(final Request request) {
+		final JavaAnonymizerStandalone.ByteArrayChannel out = new JavaAnonymizerStandalone.ByteArrayChannel(request.body.length);
+		try {
+			anonymizer.anonymize(ByteBuffer.wrap(request.body), out, StandardCharsets.UTF_8, null);
+		} catch (final CharacterCodingException e) {
+			rejected.incrementAndGet();
+			io.execute(() -> answer(request, 400, text("Snippets must be UTF-8\n")));
+			return;
+		} catch (final IOException | RuntimeException e) {
+			rejected.incrementAndGet();
+			io.execute(() -> answer(request, 500, text("Could not anonymize: "+e+"\n")));
+			return;
+		}
+		
+		final ByteBuffer bytes = out.toByteBuffer();
+		io.execute(() -> {
+			if(answer(request, 200, bytes)) { latency.record((System.nanoTime()-request.received) / 1000); }
+		});
+	}
+	
+	/**
+	 * Sends the response to a request
+	 * @param request
+	 * @param status
+	 * @param bytes: the body
+	 * @return false if the client went away
+	 */
+	private static boolean answer(final Request request, final int status, final ByteBuffer bytes) {
+		try {
+			respond(request.exchange, status, bytes);
+			return true;
+		} catch (final IOException e) {
+			request.exchange.close();
+			return false;
+		}
+	}
+	
+	private void metrics(final HttpExchange exchange) throws IOException {
+		respond(exchange, 200, "requests:   "+latency.count()+" answered, "+rejected.get()+" rejected, "+queue.size()+" queued\n"
+				+"latency us: "+latency+"\n"
+				+"batch size: "+batchSizes+"\n");
+	}
+	
+	private static void respond(final HttpExchange exchange, final int status, final String text) throws IOException {
+		respond(exchange, status, text(text));
+	}
+	
+	private static void respond(final HttpExchange exchange, final int status, final ByteBuffer bytes) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.remaining());
+		try (final OutputStream body = exchange.getResponseBody()) {
+			body.write(bytes.array(), bytes.arrayOffset()+bytes.position(), bytes.remaining());
+		}
+	}
+	
+	private static ByteBuffer text(final String text) {
+		return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Stops listening; requests still queued are dropped
+	 */
+	@Override
+	public void close() {
+		running = false;
+		server.stop(0);
+		batcher.interrupt();
+		io.shutdownNow();
+	}
+	
+	/**
+	 * Splits a batch in half until each task holds one request;
+	 * idle workers steal the unsplit halves
+	 */
+	private final class BatchTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final Request[] requests;
+		private final int from;
+		private final int to;
+		
+		BatchTask(final Request[] requests, final int from, final int to) {
+			this.requests = requests;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if(to-from == 1) {
+				anonymize(requests[from]);
+			} else if(to-from > 1) {
+				final int middle = (from+to) >>> 1;
+				invokeAll(new BatchTask(requests, from, middle), new BatchTask(requests, middle, to));
+			}
+		}
+	}
+	
+	/**
+	 * Runs until killed
+	 * @param args: port (default {@value #DEFAULT_PORT})
+	 * @throws IOException if the port cannot be bound
+	 */
+	public static void main(final String[] args) throws IOException {
+		final int port = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		final AnonymizerServer server = new AnonymizerServer(new JavaAnonymizerStandalone(), port, ForkJoinPool.commonPool());
+		System.out.println("Listening on http://127.0.0.1:"+server.port()+ANONYMIZE);
+	}
+}
@@ -0,0 +1,164 @@
+package anonymize;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for JavaAnonymizerStandalone
+ *
+ * Build with mvn -B package, then run from the repository root:
+ * java -jar target/benchmarks.jar JavaAnonymizerBenchmark
+ *
+ * @author Benjamin Strauss
+ *
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JavaAnonymizerBenchmark {
+	//directory holding the project folders
+	@Param(".")
+	public String corpus;
+	
+	//the words of JavaAnonymizerStandalone.MODERN_MATCHER
+	private static final String[] MODERN_KEYWORDS = new String[JavaAnonymizerStandalone.MODERN_MATCHER.size()];
+	static {
+		for(int index = 0; index < MODERN_KEYWORDS.length; ++index) {
+			MODERN_KEYWORDS[index] = JavaAnonymizerStandalone.MODERN_MATCHER.keyword(index);
+		}
+	}
+	
+	//every identifier in every cramfile, in order
+	private char[] identifierText;
+	private int[] identifierOffsets;
+	private int[] identifierLengths;
+	private int identifierCount;
+	
+	@Setup
+	public void loadCorpus() throws IOException {
+		final StringBuilder text = new StringBuilder();
+		try (final DirectoryStream<Path> projects = Files.newDirectoryStream(Paths.get(corpus))) {
+			for(final Path project: projects) {
+				final Path cramfile = project.resolve("cramfile.txt");
+				if(Files.isRegularFile(cramfile)) {
+					text.append(Files.readString(cramfile)).append('\n');
+				}
+			}
+		}
+		
+		identifierText = text.toString().toCharArray();
+		identifierOffsets = new int[1024];
+		identifierLengths = new int[1024];
+		identifierCount = 0;
+		
+		for(int pos = 0; pos < identifierText.length; ++pos) {
+			if(!Character.isJavaIdentifierStart(identifierText[pos])) { continue; }
+			
+			final int start = pos;
+			while(pos < identifierText.length && Character.isJavaIdentifierPart(identifierText[pos])) { ++pos; }
+			
+			if(identifierCount == identifierOffsets.length) {
+				identifierOffsets = Arrays.copyOf(identifierOffsets, identifierCount*2);
+				identifierLengths = Arrays.copyOf(identifierLengths, identifierCount*2);
+			}
+			identifierOffsets[identifierCount] = start;
+			identifierLengths[identifierCount] = pos-start;
+			++identifierCount;
+		}
+	}
+	
+	/**
+	 * Identifier numbering the way anonamize() used to do it:
+	 * a String per lookup and boxed ids in a Hashtable
+	 * @return
+	 */
+	@Benchmark
+	public int symbolsHashtable() {
+		final Hashtable<String, Integer> tokens = new Hashtable<String, Integer>();
+		final StringBuilder tokenBuilder = new StringBuilder();
+		int sum = 0;
+		
+		for(int index = 0; index < identifierCount; ++index) {
+			tokenBuilder.setLength(0);
+			tokenBuilder.append(identifierText, identifierOffsets[index], identifierLengths[index]);
+			
+			if(!tokens.containsKey(tokenBuilder.toString())) {
+				tokens.put(tokenBuilder.toString(), tokens.size());
+			}
+			sum += tokens.get(tokenBuilder.toString());
+		}
+		
+		return sum;
+	}
+	
+	/**
+	 * Identifier numbering with {@link JavaAnonymizerStandalone.SymbolTable}
+	 * @return
+	 */
+	@Benchmark
+	public int symbolsSymbolTable() {
+		final JavaAnonymizerStandalone.SymbolTable tokens = new JavaAnonymizerStandalone.SymbolTable();
+		int sum = 0;
+		
+		for(int index = 0; index < identifierCount; ++index) {
+			sum += tokens.idOf(identifierText, identifierOffsets[index], identifierLengths[index]);
+		}
+		
+		return sum;
+	}
+	
+	/**
+	 * Keyword classification by scanning the keyword array
+	 * @return
+	 */
+	@Benchmark
+	public int keywordsArrayScan() {
+		final String[] keywords = MODERN_KEYWORDS;
+		int count = 0;
+		
+		for(int index = 0; index < identifierCount; ++index) {
+			final String token = new String(identifierText, identifierOffsets[index], identifierLengths[index]);
+			if(JavaAnonymizerStandalone.stringArrayContains(keywords, token, false)) { ++count; }
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Keyword classification with {@link JavaAnonymizerStandalone.KeywordMatcher}
+	 * @return
+	 */
+	@Benchmark
+	public int keywordsMatcher() {
+		final JavaAnonymizerStandalone.KeywordMatcher matcher = JavaAnonymizerStandalone.MODERN_MATCHER;
+		int count = 0;
+		
+		for(int index = 0; index < identifierCount; ++index) {
+			if(matcher.indexOf(identifierText, identifierOffsets[index], identifierLengths[index]) != -1) { ++count; }
+		}
+		
+		return count;
+	}
+}
@@ -1,6 +1,69 @@
 package anonymize;
 
-import java.util.Hashtable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 
 /**
  * Class for anonymizing java code variables and constants
@@ -35,312 +98,3825 @@ public class JavaAnonymizerStandalone {
 			STRING, "java", "javax"
 	};
 	
-	private final String[] keywords;
+	//precompiled matchers for the built-in keyword sets
+	public static final KeywordMatcher DEFAULT_MATCHER = new KeywordMatcher(DEFAULT_KEYWORDS);
+	public static final KeywordMatcher ADDITIONAL_MATCHER = new KeywordMatcher(ADDITIONAL_KEYWORDS);
+	public static final KeywordMatcher JAVA_COMMON_MATCHER = new KeywordMatcher(JAVA_COMMON);
+	//all of the above
+	public static final KeywordMatcher MODERN_MATCHER = new KeywordMatcher(DEFAULT_KEYWORDS, ADDITIONAL_KEYWORDS, JAVA_COMMON);
+	
+	private final KeywordMatcher matcher;
+	private final AnonymizationPolicy policy;
+	
+	//size of the buffers used by the streaming methods
+	private static final int CHUNK_SIZE = 8192;
+	
+	//scratch space of each thread using this instance
+	private final ThreadLocal<Arena> arenas = ThreadLocal.withInitial(() -> new Arena(this));
+	
+	//bump whenever the same input and keywords would anonymize differently
+	private static final int OUTPUT_VERSION = 2;
 	
 	/**
 	 * Default constructor using default keywords
 	 */
-	public JavaAnonymizerStandalone() { this(DEFAULT_KEYWORDS); }
+	public JavaAnonymizerStandalone() { this(DEFAULT_MATCHER); }
 	
 	/**
 	 * 
 	 * @param keywords
 	 */
 	public JavaAnonymizerStandalone(final String[] keywords) {
-		this.keywords = (keywords != null) ? keywords : DEFAULT_KEYWORDS;
-		preserve_non_sealed = stringArrayContains(keywords, "non-sealed", true);
+		this((keywords != null) ? new KeywordMatcher(keywords) : DEFAULT_MATCHER);
+	}
+	
+	/**
+	 * Constructor sharing an already compiled keyword set
+	 * @param matcher
+	 */
+	public JavaAnonymizerStandalone(final KeywordMatcher matcher) {
+		this(matcher, AnonymizationPolicy.NONE);
+	}
+	
+	/**
+	 * Constructor with rules for keeping or hashing identifiers
+	 * @param matcher
+	 * @param policy
+	 */
+	public JavaAnonymizerStandalone(final KeywordMatcher matcher, final AnonymizationPolicy policy) {
+		Objects.requireNonNull(matcher);
+		Objects.requireNonNull(policy);
+		this.matcher = matcher;
+		this.policy = policy;
+		preserve_non_sealed = matcher.containsIgnoreCase("non-sealed");
+	}
+	
+	/**
+	 * Identifies everything besides the input that decides the output,
+	 * for caching anonymized files
+	 * @return SHA-256 of the output version, keyword set and policy
+	 */
+	public byte[] fingerprint() {
+		final MessageDigest digest = sha256();
+		digest.update(("v"+OUTPUT_VERSION+"\u0000").getBytes(StandardCharsets.UTF_8));
+		matcher.fingerprint(digest);
+		policy.fingerprint(digest);
+		return digest.digest();
 	}
 	
 	/**
 	 * Input is the java code, where line is it's own string
+	 * 
+	 * Comment removal, spacing, blank line removal and renaming are all done
+	 * by a single left-to-right pass of a {@link Lexer}
 	 * @param code
 	 * @return
 	 */
-	public String[] anonamize(String[] code) {
-		//remove comments
-		code = removeJavaComments(String.join("\n", code)).trim().split("\n");
-		
-		//Standardize the spacing
-		code = fixSpacing(code);
-		
-		//remove empty lines
-		String codeLine = String.join("\n", code);
-		while(codeLine.contains("\n\n")) {
-			codeLine = codeLine.replaceAll("\n\n", "\n");
+	public String[] anonamize(final String[] code) { return anonamize(code, (CorpusScope) null); }
+	
+	/**
+	 * Version of {@link #anonamize(String[])} numbering identifiers and literals
+	 * from a dictionary shared by every file of a corpus
+	 * @param code
+	 * @param scope: null to number this file on its own
+	 * @return
+	 */
+	public String[] anonamize(final String[] code, final CorpusScope scope) {
+		final Arena arena = acquire();
+		try {
+			arena.lexer.reset(scope, null);
+			feed(arena.lexer, code, arena);
+			return splitLines(arena.lexer.output);
+		} finally {
+			arena.release();
+		}
+	}
+	
+	/**
+	 * Version of {@link #anonamize(String[])} producing a {@link TokenStream} instead of text
+	 * @param code
+	 * @return the tokens, see {@link TokenStream}
+	 */
+	public int[] tokenize(final String[] code) {
+		final TokenStream tokens = new TokenStream();
+		tokenize(code, tokens, null);
+		return tokens.toArray();
+	}
+	
+	/**
+	 * Version of {@link #anonamize(String[], CorpusScope)} producing a {@link TokenStream} instead of text
+	 * @param code
+	 * @param tokens: receives the tokens; not cleared first, so one stream can collect several files
+	 * @param scope: null to number this file on its own
+	 */
+	public void tokenize(final String[] code, final TokenStream tokens, final CorpusScope scope) {
+		final Arena arena = acquire();
+		try {
+			feed(new Lexer(this, scope, tokens), code, arena);
+		} finally {
+			arena.release();
 		}
+	}
+	
+	/**
+	 * Streaming version of {@link #tokenize(String[], TokenStream, CorpusScope)}
+	 * @param in: java code
+	 * @param tokens: receives the tokens
+	 * @param scope: null to number this file on its own
+	 * @throws IOException
+	 */
+	public void tokenize(final Reader in, final TokenStream tokens, final CorpusScope scope) throws IOException {
+		final Lexer lexer = new Lexer(this, scope, tokens);
+		final char[] chunk = new char[CHUNK_SIZE];
 		
-		final Hashtable<String, Integer> tokens = new Hashtable<String, Integer>();
-		final Hashtable<String, Integer> literals = new Hashtable<String, Integer>();
+		for(int read = in.read(chunk); read != -1; read = in.read(chunk)) {
+			lexer.accept(chunk, 0, read);
+		}
+		lexer.finish();
+	}
+	
+	/**
+	 * Runs the lines of a file through a Lexer, joined by '\n'
+	 * @param lexer
+	 * @param code
+	 * @param arena: supplies the line buffer
+	 */
+	private static void feed(final Lexer lexer, final String[] code, final Arena arena) {
+		for(int index = 0; index < code.length; ++index) {
+			if(index > 0) { lexer.accept('\n'); }
+			
+			final char[] line = arena.line(code[index]);
+			lexer.accept(line, 0, code[index].length());
+		}
 		
-		final char[] text = codeLine.toCharArray();
-		final StringBuilder outputBuilder = new StringBuilder();
+		lexer.finish();
+	}
+	
+	/**
+	 * String.split("\n") without first copying the text into a String
+	 * @param text
+	 * @return
+	 */
+	private static String[] splitLines(final StringBuilder text) {
+		//trailing empty lines are dropped, unless the text is empty
+		int end = text.length();
+		while(end > 0 && text.charAt(end-1) == '\n') { --end; }
+		if(text.length() == 0) { return new String[] { "" }; }
 		
-		final StringBuilder tokenBuilder = new StringBuilder();
-		boolean doubleQuoted = false;
-		boolean singleQuoted = false;
-		int singleQuoteStart = -1;
-		int doubleQuoteStart = -1;
+		int count = (end > 0) ? 1 : 0;
+		for(int pos = 0; pos < end; ++pos) {
+			if(text.charAt(pos) == '\n') { ++count; }
+		}
 		
-		int identifierStart = -1;
-		boolean inJavaIdent = false;
+		final String[] lines = new String[count];
+		for(int index = 0, start = 0; index < count; ++index) {
+			int stop = start;
+			while(stop < end && text.charAt(stop) != '\n') { ++stop; }
+			lines[index] = text.substring(start, stop);
+			start = stop+1;
+		}
+		return lines;
+	}
+	
+	/**
+	 * Takes the calling thread's arena; a call nested in another on the same thread gets a new one
+	 * @return
+	 */
+	private Arena acquire() {
+		Arena arena = arenas.get();
+		if(arena.inUse) { arena = new Arena(this); }
+		arena.inUse = true;
+		return arena;
+	}
+	
+	
+	/**
+	 * Version of {@link #anonamize(String[])} that copies the output of regions
+	 * shared with an already anonymized near-duplicate instead of lexing them
+	 * 
+	 * A region is a run of lines starting outside any comment, literal or escape.
+	 * Only sound when the policy hashes identifiers: a hashed name does not depend
+	 * on anything before it, so a region anonymizes the same way in every file.
+	 * Numbered output is not, since a name's number depends on the whole file above it.
+	 * 
+	 * @param code: lines of the file, split on '\n' only
+	 * @param reuse: regions of the near-duplicate, may be null
+	 * @param record: receives this file's regions, may be null
+	 * @param metrics: may be null; token counts cover only the lines actually lexed
+	 * @return the output of {@link #anonamize(String[])}, joined by '\n'
+	 */
+	String anonymizeReusing(final String[] code, final RegionMap reuse, final RegionMap record, final FileMetrics metrics) {
+		if(policy.hasher() == null) {
+			throw new IllegalStateException("Regions can only be reused when identifiers are hashed");
+		}
 		
-		for(int ii = 0; ii < text.length; ++ii) {
-			if(isStringQuote(text, ii)) {
-				//if we are not doubleQuoted, record the start of the doubleQuoted
-				if(!doubleQuoted) { doubleQuoteStart = ii; }
-				
-				//we are starting or stopping a string literal
-				doubleQuoted = !doubleQuoted;
-				
-				//if we have finished reading the literal -- record it
-				if(!doubleQuoted) {
-					for(int jj = doubleQuoteStart; jj <= ii; ++jj) {
-						tokenBuilder.append(text[jj]);
-					}
-					
-					if(!literals.containsKey(tokenBuilder.toString())) {
-						literals.put(tokenBuilder.toString(), literals.size());
-					}
-					
-					final int literalNo = literals.get(tokenBuilder.toString());
-					
-					//System.out.println("Found literal: $"+literalNo+" :: "+tokenBuilder.toString());
-					
-					outputBuilder.append("\"literal$"+literalNo+"\"");
-					
-					//reset tokenBuilder
-					tokenBuilder.setLength(0);
-					doubleQuoteStart = -1;
-				}
-			} else if(doubleQuoted) {
-				//we are in a string literal
-				continue;
-			} else if(isCharQuote(text, ii)) {
-				//if we are not doubleQuoted, record the start of the doubleQuoted
-				if(!singleQuoted) { singleQuoteStart = ii; }
-				
-				//we are starting or stopping a string literal
-				singleQuoted = !singleQuoted;
-				
-				//if we have finished reading the literal -- record it
-				if(!singleQuoted) {
-					for(int jj = singleQuoteStart; jj <= ii; ++jj) {
-						tokenBuilder.append(text[jj]);
-					}
-					
-					if(!literals.containsKey(tokenBuilder.toString())) {
-						literals.put(tokenBuilder.toString(), literals.size());
-					}
-					
-					final int literalNo = literals.get(tokenBuilder.toString());
-					
-					//System.out.println("Found char literal: $"+literalNo+" :: "+tokenBuilder.toString());
-					
-					outputBuilder.append("'char-literal$"+literalNo+"'");
-					
-					//reset tokenBuilder
-					tokenBuilder.setLength(0);
-					singleQuoteStart = -1;
-				}
-			} else if(singleQuoted) {
-				//we are in a char literal
-				continue;
-			} else {
-				if(Character.isJavaIdentifierStart(text[ii])) {
-					inJavaIdent = true;
-					identifierStart = ii;
-					tokenBuilder.append(text[ii]);
-					
-				} else if(!Character.isJavaIdentifierPart(text[ii])) {
-					//if we encounter a '-', make sure it doesn't come from "non-sealed"
-					if(text[ii] == '-' && preserve_non_sealed && isNonSealedHyphen(text, ii)) {
-						outputBuilder.append(text[ii]);
+		final Arena arena = acquire();
+		try {
+			final Lexer lexer = arena.lexer;
+			lexer.reset(null, metrics);
+			//first line and output position of the region being lexed
+			int regionStart = 0;
+			int outputStart = 0;
+			
+			for(int index = 0; index < code.length;) {
+				if(reuse != null && index == regionStart) {
+					final RegionMap.Region region = reuse.find(code, index);
+					if(region != null) {
+						lexer.splice(region.output);
+						index += region.lines.length;
+						regionStart = index;
+						outputStart = lexer.output.length();
+						if(metrics != null) { metrics.reusedLines += region.lines.length; }
 						continue;
 					}
-					
-					inJavaIdent = false;
-					
-					if(identifierStart != -1) {
-						/*
-						 * build the identifier token
-						 * why does it only work when jj < ii-1?
-						 */
-						for(int jj = identifierStart; jj < ii-1; ++jj) {
-							tokenBuilder.append(text[jj]);
-						}
-						
-						if(!tokens.containsKey(tokenBuilder.toString())) {
-							tokens.put(tokenBuilder.toString(), tokens.size());
-						}
-						
-						final int identifierNo = tokens.get(tokenBuilder.toString());
-						
-						//System.out.println("Found identifier: $"+identifierNo+" :: "+tokenBuilder.toString());
-						
-						if(stringArrayContains(keywords, tokenBuilder.toString(), false)) {
-							outputBuilder.append(tokenBuilder.toString());
-						} else {
-							outputBuilder.append("ident$"+identifierNo);
-						}
-						
-						//reset outputBuilder
-						tokenBuilder.setLength(0);
-						identifierStart = -1;
-					}
 				}
 				
-				if(!inJavaIdent) {
-					outputBuilder.append(text[ii]);
+				lexer.accept(arena.line(code[index]), 0, code[index].length());
+				
+				//the last line has no '\n', so its region is never recorded
+				if(++index < code.length) {
+					lexer.accept('\n');
+					if(lexer.atRegionBoundary()) {
+						if(record != null) { record.add(code, regionStart, index, lexer.output, outputStart); }
+						regionStart = index;
+						outputStart = lexer.output.length();
+					}
 				}
 			}
+			lexer.finish();
+			
+			if(metrics != null) {
+				//the '\n' between lines
+				metrics.charsIn = Math.max(code.length-1, 0);
+				for(final String text: code) { metrics.charsIn += text.length(); }
+				metrics.charsOut = lexer.output.length();
+				metrics.symbols = lexer.tokens.size();
+				metrics.distinctLiterals = lexer.literals.size();
+			}
+			return lexer.output.toString();
+		} finally {
+			arena.release();
 		}
-		
-		codeLine = outputBuilder.toString();
-		
-		return codeLine.split("\n");
 	}
-
+	
 	/**
+	 * Streaming version of {@link #anonamize(String[])}
 	 * 
-	 * @param text
-	 * @param index
-	 * @return
+	 * The input is read in chunks of {@value #CHUNK_SIZE} characters and the output is
+	 * written as it is produced, so memory use does not grow with the size of the file.
+	 * Identifier and literal numbering carries across chunk boundaries.
+	 * The output is the lines of {@link #anonamize(String[])} joined by '\n'.
+	 * 
+	 * @param in: java code
+	 * @param out: anonymized java code; flushed but not closed
+	 * @throws IOException
 	 */
-	private boolean isCharQuote(final char[] text, final int index) {
-		if(text[index] == '\'') {
-			if(text[index-1] == '\\') {
-				return false;
-			} else {
-				return true;
+	public void anonymize(final Reader in, final Writer out) throws IOException { anonymize(in, out, (CorpusScope) null); }
+	
+	/**
+	 * Version of {@link #anonymize(Reader, Writer)} numbering identifiers and literals
+	 * from a dictionary shared by every file of a corpus
+	 * @param in: java code
+	 * @param out: anonymized java code; flushed but not closed
+	 * @param scope: null to number this file on its own
+	 * @throws IOException
+	 */
+	public void anonymize(final Reader in, final Writer out, final CorpusScope scope) throws IOException {
+		anonymize(in, out, scope, null, null);
+	}
+	
+	/**
+	 * Version of {@link #anonymize(Reader, Writer, CorpusScope)} that measures itself
+	 * @param in: java code
+	 * @param out: anonymized java code; flushed but not closed
+	 * @param scope: null to number this file on its own
+	 * @param metrics: filled in for this file; null to skip measuring
+	 * @throws IOException
+	 */
+	public void anonymize(final Reader in, final Writer out, final CorpusScope scope, final FileMetrics metrics) throws IOException {
+		anonymize(in, out, scope, metrics, null);
+	}
+	
+	/**
+	 * Version of {@link #anonymize(Reader, Writer, CorpusScope, FileMetrics)} that also records the ids
+	 * the file's names were given, for {@link CorpusScope#replay(DataInputStream)}
+	 * @param in: java code
+	 * @param out: anonymized java code; flushed but not closed
+	 * @param scope: null to number this file on its own
+	 * @param metrics: filled in for this file; null to skip measuring
+	 * @param registered: receives the file's names and ids, may be null
+	 * @throws IOException
+	 */
+	void anonymize(final Reader in, final Writer out, final CorpusScope scope, final FileMetrics metrics,
+			final DataOutputStream registered) throws IOException {
+		final Arena arena = acquire();
+		try {
+			final Lexer lexer = arena.lexer;
+			lexer.reset(scope, metrics);
+			stream(in, out, lexer, metrics, arena.chunk);
+			
+			if(metrics != null) {
+				metrics.symbols = lexer.tokens.size();
+				metrics.distinctLiterals = lexer.literals.size();
 			}
+			if(registered != null) { lexer.writeRegistered(registered); }
+		} finally {
+			arena.release();
 		}
-		return false;
 	}
-
+	
 	/**
-	 * Determines if a character starts a quoted string literal
-	 * @param text
-	 * @param index
-	 * @return
+	 * Version of {@link #anonymize(Reader, Writer)} that also writes a {@link DeanonymizationMap}
+	 * @param in: java code
+	 * @param out: anonymized java code; flushed but not closed
+	 * @param mapFile: where to write the map
+	 * @throws IOException
 	 */
-	private static boolean isStringQuote(final char[] text, final int index) {
-		if(text[index] == '"') {
-			switch(text[index-1]) {
-			case '\\':
-				int escapes = 0;
-				
-				loop:
-				for(int escIndex = index-1; escIndex >= 0; --escIndex) {
-					if(text[escIndex] != '\\') {
-						break loop;
-					} else {
-						++escapes;
-					}
-				}
-				//if even number of preceding escapes
-				if(escapes % 2 == 0) {
-					return true;
-				} else {
-					return false;
-				}
-			case '\'':
-				//a single quoted double quote, not the start/end of a literal
-				if(text[index-1] == text[index+1]) {
-					return false;
-				} else {
-					return true;
-				}
-			}
-			return true;
+	public void anonymize(final Reader in, final Writer out, final Path mapFile) throws IOException {
+		if(policy.hasher() != null) {
+			throw new IllegalStateException("Hashed identifiers cannot be mapped back by number");
+		}
+		final Arena arena = acquire();
+		try {
+			final Lexer lexer = arena.lexer;
+			lexer.reset(null, null);
+			lexer.recordLines();
+			stream(in, out, lexer, null, arena.chunk);
+			DeanonymizationMap.write(mapFile, lexer);
+		} finally {
+			arena.release();
 		}
-		return false;
 	}
 	
 	/**
-	 * determine if a given hyphen is the hyphen in "non-sealed"
-	 * @param text
-	 * @param ii
+	 * Version of {@link #anonamize(String[])} that also writes a {@link DeanonymizationMap}
+	 * @param code
+	 * @param mapFile: where to write the map
 	 * @return
+	 * @throws IOException
+	 */
+	public String[] anonamize(final String[] code, final Path mapFile) throws IOException {
+		final StringWriter out = new StringWriter();
+		anonymize(new StringReader(String.join("\n", code)), out, mapFile);
+		return out.toString().split("\n");
+	}
+	
+	/**
+	 * 
+	 * @param in
+	 * @param out
+	 * @param lexer
+	 * @param metrics: may be null
+	 * @param chunk: scratch space
+	 * @throws IOException
 	 */
-	private boolean isNonSealedHyphen(final char[] text, final int ii) {
-		if(ii < 3 || ii >= text.length-6) { return false; }
+	private static void stream(final Reader in, final Writer out, final Lexer lexer, final FileMetrics metrics,
+			final char[] chunk) throws IOException {
+		if(metrics != null) {
+			streamMeasured(in, out, lexer, metrics, chunk);
+			return;
+		}
+		
+		for(int read = in.read(chunk); read != -1; read = in.read(chunk)) {
+			lexer.accept(chunk, 0, read);
+			lexer.drainTo(out, chunk);
+		}
+		
+		lexer.finish();
+		lexer.drainTo(out, chunk);
+		out.flush();
+	}
+	
+	/**
+	 * {@link #stream(Reader, Writer, Lexer, FileMetrics, char[])} timing each phase
+	 * @param in
+	 * @param out
+	 * @param lexer
+	 * @param metrics
+	 * @param chunk
+	 * @throws IOException
+	 */
+	private static void streamMeasured(final Reader in, final Writer out, final Lexer lexer, final FileMetrics metrics,
+			final char[] chunk) throws IOException {
+		long time = System.nanoTime();
+		for(int read = in.read(chunk); read != -1; read = in.read(chunk)) {
+			time = metrics.lap(FileMetrics.READ, time);
+			metrics.charsIn += read;
+			
+			lexer.accept(chunk, 0, read);
+			time = metrics.lap(FileMetrics.SCAN, time);
+			
+			metrics.charsOut += lexer.output.length();
+			lexer.drainTo(out, chunk);
+			time = metrics.lap(FileMetrics.WRITE, time);
+		}
+		time = metrics.lap(FileMetrics.READ, time);
 		
-		if(ii != 4 || Character.isJavaIdentifierPart(text[ii-4])) { return false; }
-		if(text[ii-3] != 'n') { return false; }
-		if(text[ii-2] != 'o') { return false; }
-		if(text[ii-1] != 'n') { return false; }
-		if(text[ii+1] != 's') { return false; }
-		if(text[ii+2] != 'e') { return false; }
-		if(text[ii+3] != 'a') { return false; }
-		if(text[ii+4] != 'l') { return false; }
-		if(text[ii+5] != 'e') { return false; }
-		if(text[ii+6] != 'd') { return false; }
-		if(ii != text.length-7 || Character.isJavaIdentifierPart(text[ii+7])) { return false; }
+		lexer.finish();
+		time = metrics.lap(FileMetrics.SCAN, time);
 		
-		return true;
+		metrics.charsOut += lexer.output.length();
+		lexer.drainTo(out, chunk);
+		out.flush();
+		metrics.lap(FileMetrics.WRITE, time);
 	}
 	
 	/**
+	 * Channel version of {@link #anonymize(Reader, Writer)}
 	 * 
-	 * @param code
-	 * @return
+	 * Bytes are decoded and encoded through fixed-size buffers of {@value #CHUNK_SIZE}
+	 * bytes/characters, so memory use does not grow with the size of the file.
+	 * 
+	 * @param in: java code
+	 * @param out: anonymized java code; not closed
+	 * @param charset: encoding of both the input and the output
+	 * @throws IOException, including {@link CharacterCodingException} for malformed input
 	 */
-	protected static String[] fixSpacing(final String[] code) {
-		for(int index = 0; index < code.length; ++index) {
-			code[index] = code[index].replaceAll("\\s+", " ").trim();
+	public void anonymize(final ReadableByteChannel in, final WritableByteChannel out, final Charset charset) throws IOException {
+		anonymize(in, out, charset, null);
+	}
+	
+	/**
+	 * Version of {@link #anonymize(ReadableByteChannel, WritableByteChannel, Charset)} numbering
+	 * identifiers and literals from a dictionary shared by every file of a corpus
+	 * @param in: java code
+	 * @param out: anonymized java code; not closed
+	 * @param charset: encoding of both the input and the output
+	 * @param scope: null to number this file on its own
+	 * @throws IOException
+	 */
+	public void anonymize(final ReadableByteChannel in, final WritableByteChannel out, final Charset charset,
+			final CorpusScope scope) throws IOException {
+		transcode(in, null, out, charset, scope, null);
+	}
+	
+	/**
+	 * Version of {@link #anonymize(ReadableByteChannel, WritableByteChannel, Charset)} reading
+	 * straight from a buffer, such as a mapped file, without copying it
+	 * @param in: encoded java code, from its position to its limit; consumed
+	 * @param out: receives the encoded anonymized code
+	 * @param charset: of both the input and the output
+	 * @param scope: null to number this file on its own
+	 * @throws IOException
+	 */
+	public void anonymize(final ByteBuffer in, final WritableByteChannel out, final Charset charset,
+			final CorpusScope scope) throws IOException {
+		transcode(null, in, out, charset, scope, null);
+	}
+	
+	/**
+	 * Version of {@link #anonymize(ByteBuffer, WritableByteChannel, Charset, CorpusScope)} that also
+	 * records the ids the file's names were given, for {@link CorpusScope#replay(DataInputStream)}
+	 * @param in: encoded java code, from its position to its limit; consumed
+	 * @param out: receives the encoded anonymized code
+	 * @param charset: of both the input and the output
+	 * @param scope: null to number this file on its own
+	 * @param registered: receives the file's names and ids, may be null
+	 * @throws IOException
+	 */
+	void anonymize(final ByteBuffer in, final WritableByteChannel out, final Charset charset,
+			final CorpusScope scope, final DataOutputStream registered) throws IOException {
+		transcode(null, in, out, charset, scope, registered);
+	}
+	
+	/**
+	 * 
+	 * @param in: read until it is exhausted; null to anonymize whole
+	 * @param whole: all of the input, if in is null
+	 * @param out
+	 * @param charset
+	 * @param scope: may be null
+	 * @param registered: may be null
+	 * @throws IOException
+	 */
+	private void transcode(final ReadableByteChannel in, final ByteBuffer whole, final WritableByteChannel out,
+			final Charset charset, final CorpusScope scope, final DataOutputStream registered) throws IOException {
+		final Arena arena = acquire();
+		try {
+			arena.lexer.reset(scope, null);
+			arena.clearBuffers();
+			transcode(in, (in != null) ? arena.bytesIn : whole, out, arena.decoder(charset), arena.encoder(charset), arena);
+			if(registered != null) { arena.lexer.writeRegistered(registered); }
+		} finally {
+			arena.release();
 		}
+	}
+	
+	/**
+	 * 
+	 * @param in: read into bytesIn until it is exhausted; null if bytesIn already holds all the input
+	 * @param bytesIn
+	 * @param out
+	 * @param decoder
+	 * @param encoder
+	 * @param arena: supplies the lexer, already reset, and the other buffers
+	 * @throws IOException
+	 */
+	private static void transcode(final ReadableByteChannel in, final ByteBuffer bytesIn, final WritableByteChannel out,
+			final CharsetDecoder decoder, final CharsetEncoder encoder, final Arena arena) throws IOException {
+		final Lexer lexer = arena.lexer;
+		final ByteBuffer bytesOut = arena.bytesOut;
+		final CharBuffer chars = arena.chars;
+		final CharBuffer charsOut = arena.charsOut;
 		
-		return code;
+		boolean endOfInput = false;
+		while(!endOfInput) {
+			if(in == null) {
+				endOfInput = true;
+			} else {
+				endOfInput = (in.read(bytesIn) == -1);
+				bytesIn.flip();
+			}
+			
+			CoderResult result;
+			do {
+				result = decoder.decode(bytesIn, chars, endOfInput);
+				if(result.isError()) { result.throwException(); }
+				
+				chars.flip();
+				lexer.accept(chars.array(), chars.position(), chars.remaining());
+				chars.clear();
+				lexer.encodeTo(out, encoder, charsOut, bytesOut);
+			} while(result.isOverflow());
+			
+			//keep any partial multi-byte sequence for the next read
+			if(in != null) { bytesIn.compact(); }
+		}
+		
+		do {
+			final CoderResult result = decoder.flush(chars);
+			chars.flip();
+			lexer.accept(chars.array(), chars.position(), chars.remaining());
+			chars.clear();
+			if(!result.isOverflow()) { break; }
+		} while(true);
+		
+		lexer.finish();
+		lexer.encodeTo(out, encoder, charsOut, bytesOut);
+		
+		charsOut.flip();
+		CoderResult result;
+		do {
+			result = encoder.encode(charsOut, bytesOut, true);
+			if(result.isError()) { result.throwException(); }
+			writeFully(out, bytesOut);
+		} while(result.isOverflow());
+		do {
+			result = encoder.flush(bytesOut);
+			writeFully(out, bytesOut);
+		} while(result.isOverflow());
+	}
+	
+	/** @return a new SHA-256 digest */
+	static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (final NoSuchAlgorithmException e) {
+			//every Java platform is required to support SHA-256
+			throw new RuntimeException(e);
+		}
 	}
 	
 	/**
-	 * Removes Java comments
+	 * Writes and clears the whole of a filled buffer
+	 * @param out
+	 * @param bytes
+	 * @throws IOException
+	 */
+	private static void writeFully(final WritableByteChannel out, final ByteBuffer bytes) throws IOException {
+		bytes.flip();
+		while(bytes.hasRemaining()) {
+			out.write(bytes);
+		}
+		bytes.clear();
+	}
+	
+	/**
+	 * Anonymizes java files to standard output, each followed by '\n'
 	 * 
-	 * @param text
-	 * @return
+	 * Meant for one-shot runs, which spend most of their time starting the JVM:
+	 * anonymize.sh launches it from a class data sharing archive trained on the
+	 * sample files.  Use the CorpusAnonymizer for whole folders.
+	 * @param args: .java files; none or "-" to read standard input
+	 * @throws IOException
 	 */
-	public static String removeJavaComments(final String text) {
-		final StringBuilder builder = new StringBuilder();
-		final char[] lineChars = text.toCharArray();
+	public static void main(final String[] args) throws IOException {
+		final JavaAnonymizerStandalone anonymizer = new JavaAnonymizerStandalone();
+		//unbuffered; the anonymizer writes whole chunks
+		final WritableByteChannel out = Channels.newChannel(new FileOutputStream(FileDescriptor.out));
+		final ByteBuffer newline = ByteBuffer.allocate(1);
 		
-		boolean quoted = false;
-		boolean commented = false;
-		boolean line_commented = false;
+		for(final String file: (args.length > 0) ? args : new String[] { "-" }) {
+			try (final ReadableByteChannel in = file.equals("-") ? Channels.newChannel(System.in) : FileChannel.open(Paths.get(file))) {
+				anonymizer.anonymize(in, out, StandardCharsets.UTF_8);
+			}
+			newline.put((byte) '\n');
+			writeFully(out, newline);
+		}
+	}
+	
+	/**
+	 * Rebuilds the anonymized files of a whole corpus
+	 * 
+	 * Every directory holding .java files is a project.  Each project gets one
+	 * class#N.txt per .java file (numbered as in its existing @readme.txt, then in
+	 * file name order), an @readme.txt mapping file paths to class numbers, and a
+	 * cramfile-anon.txt holding all of the class#N.txt files separated by dividers.
+	 * 
+	 * Files are anonymized in parallel on a ForkJoinPool, sharing one
+	 * JavaAnonymizerStandalone: an instance holds no per-call state besides
+	 * per-thread scratch space, so it is safe to use from any number of threads.
+	 */
+	public static class CorpusAnonymizer {
+		public static final String README = "@readme.txt";
+		public static final String CRAMFILE_ANON = "cramfile-anon.txt";
+		public static final String DIVIDER = "<<<<<<<<DIVIDER>>>>>>>>";
 		
-		for(int pos = 0; pos < lineChars.length; ++pos) {
-			switch(lineChars[pos]) {
-			case '"':
-				if(!(commented || line_commented)) { 
-					//ignore escaped quotes
-					if(lineChars[pos-1] != '\\') {
-						quoted = !quoted;
-					}
-					builder.append(lineChars[pos]);
+		private static final String JAVA_EXT = ".java";
+		private static final String CLASS_PREFIX = "class#";
+		private static final String CLASS_EXT = ".txt";
+		//build output and tests, not projects
+		private static final List<String> SKIPPED_DIRS = Arrays.asList("build", "target", "test");
+		private static final byte[] NEWLINE = { '\n' };
+		//share of MinHash slots on which a near-duplicate agrees
+		static final double NEAR_DUPLICATE = 0.7;
+		
+		private final JavaAnonymizerStandalone anonymizer;
+		private final ForkJoinPool pool;
+		//null to always anonymize
+		private final AnonymizationCache cache;
+		//null to number each file on its own
+		private final CorpusScope scope;
+		//null to not measure
+		private final MetricsSink metrics;
+		private final byte[] fingerprint;
+		
+		/**
+		 * Constructs a new CorpusAnonymizer using default keywords and the common pool
+		 */
+		public CorpusAnonymizer() { this(new JavaAnonymizerStandalone()); }
+		
+		/**
+		 * Constructs a new CorpusAnonymizer using the common pool
+		 * @param anonymizer
+		 */
+		public CorpusAnonymizer(final JavaAnonymizerStandalone anonymizer) {
+			this(anonymizer, ForkJoinPool.commonPool());
+		}
+		
+		/**
+		 * Constructs a new CorpusAnonymizer
+		 * @param anonymizer
+		 * @param pool
+		 */
+		public CorpusAnonymizer(final JavaAnonymizerStandalone anonymizer, final ForkJoinPool pool) {
+			this(anonymizer, pool, null);
+		}
+		
+		/**
+		 * Constructs a new CorpusAnonymizer that only anonymizes files missing from a cache
+		 * @param anonymizer
+		 * @param pool
+		 * @param cache: may be null
+		 */
+		public CorpusAnonymizer(final JavaAnonymizerStandalone anonymizer, final ForkJoinPool pool,
+				final AnonymizationCache cache) {
+			this(anonymizer, pool, cache, null);
+		}
+		
+		/**
+		 * Constructs a new CorpusAnonymizer
+		 * @param anonymizer
+		 * @param pool
+		 * @param cache: may be null
+		 * @param scope: numbering shared by every file, may be null
+		 */
+		public CorpusAnonymizer(final JavaAnonymizerStandalone anonymizer, final ForkJoinPool pool,
+				final AnonymizationCache cache, final CorpusScope scope) {
+			this(anonymizer, pool, cache, scope, null);
+		}
+		
+		/**
+		 * Constructs a new CorpusAnonymizer that reports on every file
+		 * @param anonymizer
+		 * @param pool
+		 * @param cache: may be null
+		 * @param scope: numbering shared by every file, may be null
+		 * @param metrics: receives each file's {@link FileMetrics}, from any worker thread; may be null
+		 */
+		public CorpusAnonymizer(final JavaAnonymizerStandalone anonymizer, final ForkJoinPool pool,
+				final AnonymizationCache cache, final CorpusScope scope, final MetricsSink metrics) {
+			Objects.requireNonNull(anonymizer);
+			Objects.requireNonNull(pool);
+			this.anonymizer = anonymizer;
+			this.pool = pool;
+			this.cache = cache;
+			this.scope = scope;
+			this.metrics = metrics;
+			
+			//output numbered by a scope is only valid alongside that scope
+			final MessageDigest digest = sha256();
+			digest.update(anonymizer.fingerprint());
+			if(scope != null) {
+				digest.update(scope.id.toString().getBytes(StandardCharsets.UTF_8));
+			}
+			fingerprint = digest.digest();
+		}
+		
+		/**
+		 * Anonymizes every project under a directory
+		 * @param root: corpus directory; @readme.txt paths are relative to it
+		 * @return number of files anonymized
+		 */
+		public int anonymizeCorpus(final Path root) {
+			final List<Project> projects = findProjects(root);
+			
+			final ArrayList<Path> sources = new ArrayList<Path>();
+			final ArrayList<Integer> numbers = new ArrayList<Integer>();
+			for(final Project project: projects) {
+				for(int classNo = 0; classNo < project.sources.size(); ++classNo) {
+					if(project.sources.get(classNo) == null) { continue; }
+					sources.add(project.sources.get(classNo));
+					numbers.add(classNo);
 				}
-				break;
-			case '/':
-				if(quoted) {
-					builder.append(lineChars[pos]);
-				} else if(pos < lineChars.length-1 && lineChars[pos+1] == '/') {
-					line_commented = true;
-				} else if(pos < lineChars.length-1 && !line_commented && lineChars[pos+1] == '*') {
-					commented = true;
-				} if(pos > 0 && commented && !line_commented && lineChars[pos-1] == '*') {
-					commented = false;
+			}
+			
+			final int[] classNos = new int[sources.size()];
+			for(int index = 0; index < classNos.length; ++index) {
+				classNos[index] = numbers.get(index);
+			}
+			
+			if(anonymizer.policy.hasher() != null && cache == null && scope == null) {
+				anonymizeNearDuplicates(sources, classNos);
+			} else {
+				pool.invoke(new FileTask(index -> anonymizeFile(sources.get(index), classNos[index]), 0, sources.size()));
+			}
+			
+			for(final Project project: projects) {
+				writeIndex(project);
+			}
+			
+			return sources.size();
+		}
+		
+		/**
+		 * Finds the directories holding .java files.  Files directly in the root (such as this
+		 * tool's own source) and the directories in {@link #SKIPPED_DIRS} are not part of the corpus.
+		 * @param root
+		 * @return each directory's project, numbered
+		 */
+		private static List<Project> findProjects(final Path root) {
+			final TreeMap<Path, List<Path>> dirs = new TreeMap<Path, List<Path>>();
+			
+			try (final Stream<Path> paths = Files.walk(root)) {
+				paths.filter(path -> path.getFileName().toString().endsWith(JAVA_EXT))
+					.filter(path -> !path.getParent().equals(root))
+					.filter(path -> !SKIPPED_DIRS.contains(root.relativize(path).getName(0).toString()))
+					.filter(Files::isRegularFile)
+					.forEach(path -> dirs.computeIfAbsent(path.getParent(), dir -> new ArrayList<Path>()).add(path));
+			} catch (final IOException e) {
+				throw new RuntimeException(e);
+			}
+			
+			final ArrayList<Project> projects = new ArrayList<Project>();
+			for(final Map.Entry<Path, List<Path>> dir: dirs.entrySet()) {
+				projects.add(Project.number(root, dir.getKey(), dir.getValue()));
+			}
+			return projects;
+		}
+		
+		/**
+		 * A directory of .java files and the class numbers they are published under
+		 * 
+		 * Numbers already in the directory's @readme.txt are kept, along with the path each
+		 * file is listed under, since the LLM transcripts refer to classes by those numbers.
+		 * Files the readme does not list are numbered after it, by name, and listed by
+		 * their path relative to the corpus root.
+		 */
+		private static final class Project {
+			private static final String LISTED = "File: ";
+			
+			final Path dir;
+			//indexed by class number; null where a listed file is no longer in the directory
+			final ArrayList<Path> sources = new ArrayList<Path>();
+			//the path each file is listed under in the readme
+			final ArrayList<String> listedPaths = new ArrayList<String>();
+			
+			private Project(final Path dir) { this.dir = dir; }
+			
+			/**
+			 * 
+			 * @param root
+			 * @param dir
+			 * @param files: the .java files in dir
+			 * @return the files of dir, numbered
+			 */
+			static Project number(final Path root, final Path dir, final List<Path> files) {
+				final Project project = new Project(dir);
+				final TreeMap<String, Path> unlisted = new TreeMap<String, Path>();
+				for(final Path file: files) {
+					unlisted.put(file.getFileName().toString(), file);
 				}
-				break;
-			case '\n':
-				line_commented = false;
-				builder.append(lineChars[pos]);
-				break;
-			default:
-				if(!(commented || line_commented)) {
-					builder.append(lineChars[pos]);
+				
+				final Path readme = dir.resolve(README);
+				if(Files.isRegularFile(readme)) {
+					try {
+						for(final String line: Files.readAllLines(readme, StandardCharsets.UTF_8)) {
+							//File: <path> = class#N
+							final int split = line.lastIndexOf(" = "+CLASS_PREFIX);
+							if(!line.startsWith(LISTED) || split == -1) { continue; }
+							
+							final String path = line.substring(LISTED.length(), split);
+							final int classNo = Integer.parseInt(line.substring(split+3+CLASS_PREFIX.length()).trim());
+							//listed paths are where the class came from, the file itself is in dir
+							project.set(classNo, unlisted.remove(path.substring(path.lastIndexOf('/')+1)), path);
+						}
+					} catch (final IOException | NumberFormatException e) {
+						throw new RuntimeException("Could not read: "+readme, e);
+					}
 				}
-			}	
+				
+				for(final Path file: unlisted.values()) {
+					project.set(project.sources.size(), file, root.relativize(file).toString().replace(File.separatorChar, '/'));
+				}
+				return project;
+			}
+			
+			private void set(final int classNo, final Path source, final String listedPath) {
+				while(sources.size() <= classNo) {
+					sources.add(null);
+					listedPaths.add(null);
+				}
+				sources.set(classNo, source);
+				listedPaths.set(classNo, listedPath);
+			}
+		}
+		
+		/**
+		 * 
+		 * @param source: a .java file
+		 * @param classNo
+		 * @return the class#N.txt file for a source
+		 */
+		private static Path classFile(final Path source, final int classNo) {
+			return source.resolveSibling(CLASS_PREFIX+classNo+CLASS_EXT);
+		}
+		
+		/**
+		 * Anonymizes one file into its class#N.txt
+		 * @param source
+		 * @param classNo
+		 */
+		private void anonymizeFile(final Path source, final int classNo) {
+			if(cache != null) {
+				anonymizeCached(source, classNo);
+				return;
+			}
+			
+			if(metrics == null) {
+				//straight between the files through the thread's arena, leaving no buffers behind
+				try (final FileChannel in = FileChannel.open(source);
+						final FileChannel out = FileChannel.open(classFile(source, classNo), StandardOpenOption.CREATE,
+								StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+					anonymizer.anonymize(in, out, StandardCharsets.UTF_8, scope);
+					out.write(ByteBuffer.wrap(NEWLINE));
+				} catch (final IOException e) {
+					throw new RuntimeException("Could not anonymize: "+source, e);
+				}
+				return;
+			}
+			
+			final FileMetrics fileMetrics = new FileMetrics();
+			try (final Reader in = Files.newBufferedReader(source);
+					final Writer out = Files.newBufferedWriter(classFile(source, classNo))) {
+				anonymizer.anonymize(in, out, scope, fileMetrics);
+				out.write('\n');
+			} catch (final IOException e) {
+				throw new RuntimeException("Could not anonymize: "+source, e);
+			}
+			
+			metrics.fileAnonymized(source, fileMetrics);
+		}
+		
+		/**
+		 * Anonymizes files with hashed identifiers, copying the regions a file shares
+		 * with a near-duplicate instead of lexing them again
+		 * 
+		 * Every file gets a {@link MinHashSignature}.  A file sharing a band with an earlier
+		 * file whose signature agrees on at least {@value #NEAR_DUPLICATE} of its slots is
+		 * that file's near-duplicate; any other file starts a group of its own.  The first file
+		 * of each group is anonymized first, recording its regions, then the rest of the group
+		 * reuses them (see {@link JavaAnonymizerStandalone#anonymizeReusing}).
+		 * @param sources
+		 * @param classNos
+		 */
+		private void anonymizeNearDuplicates(final List<Path> sources, final int[] classNos) {
+			final MinHashSignature[] signatures = new MinHashSignature[sources.size()];
+			pool.invoke(new FileTask(index -> signatures[index] = signature(sources.get(index)), 0, sources.size()));
+			
+			//first file of each file's group, or -1 for the first files themselves
+			final int[] firsts = new int[sources.size()];
+			//regions of the first files that have near-duplicates
+			final RegionMap[] regions = new RegionMap[sources.size()];
+			final List<Map<Long, Integer>> bands = new ArrayList<Map<Long, Integer>>();
+			for(int band = 0; band < MinHashSignature.BANDS; ++band) {
+				bands.add(new HashMap<Long, Integer>());
+			}
+			
+			int groupedFiles = 0;
+			for(int index = 0; index < sources.size(); ++index) {
+				firsts[index] = -1;
+				double best = NEAR_DUPLICATE;
+				for(int band = 0; band < MinHashSignature.BANDS; ++band) {
+					final Integer first = bands.get(band).get(signatures[index].band(band));
+					if(first != null && signatures[index].similarity(signatures[first]) >= best) {
+						best = signatures[index].similarity(signatures[first]);
+						firsts[index] = first;
+					}
+				}
+				
+				if(firsts[index] == -1) {
+					for(int band = 0; band < MinHashSignature.BANDS; ++band) {
+						bands.get(band).putIfAbsent(signatures[index].band(band), index);
+					}
+				} else {
+					regions[firsts[index]] = new RegionMap();
+					++groupedFiles;
+				}
+			}
+			
+			final int[] firstFiles = new int[sources.size()-groupedFiles];
+			final int[] nearDuplicates = new int[groupedFiles];
+			for(int index = 0, nextFirst = 0, nextDuplicate = 0; index < sources.size(); ++index) {
+				if(firsts[index] == -1) {
+					firstFiles[nextFirst++] = index;
+				} else {
+					nearDuplicates[nextDuplicate++] = index;
+				}
+			}
+			
+			pool.invoke(new FileTask(next -> {
+				final int index = firstFiles[next];
+				if(regions[index] == null) {
+					anonymizeFile(sources.get(index), classNos[index]);
+				} else {
+					anonymizeRegions(sources.get(index), classNos[index], null, regions[index]);
+				}
+			}, 0, firstFiles.length));
+			
+			pool.invoke(new FileTask(next -> {
+				final int index = nearDuplicates[next];
+				anonymizeRegions(sources.get(index), classNos[index], regions[firsts[index]], null);
+			}, 0, nearDuplicates.length));
+		}
+		
+		/**
+		 * 
+		 * @param source
+		 * @return the MinHash signature of a source file
+		 */
+		private static MinHashSignature signature(final Path source) {
+			try {
+				final char[] text = Files.readString(source).toCharArray();
+				return new MinHashSignature(text, text.length);
+			} catch (final IOException e) {
+				throw new RuntimeException("Could not read: "+source, e);
+			}
+		}
+		
+		/**
+		 * Anonymizes one file into its class#N.txt through {@link JavaAnonymizerStandalone#anonymizeReusing}
+		 * @param source
+		 * @param classNo
+		 * @param reuse: regions of its near-duplicate, may be null
+		 * @param record: receives its regions, may be null
+		 */
+		private void anonymizeRegions(final Path source, final int classNo, final RegionMap reuse, final RegionMap record) {
+			final FileMetrics fileMetrics = (metrics != null) ? new FileMetrics() : null;
+			long start = System.nanoTime();
+			
+			try {
+				final String[] code = Files.readString(source).split("\n", -1);
+				if(fileMetrics != null) { start = fileMetrics.lap(FileMetrics.READ, start); }
+				
+				final String output = anonymizer.anonymizeReusing(code, reuse, record, fileMetrics);
+				if(fileMetrics != null) { start = fileMetrics.lap(FileMetrics.SCAN, start); }
+				
+				try (final Writer out = Files.newBufferedWriter(classFile(source, classNo))) {
+					out.write(output);
+					out.write('\n');
+				}
+				if(fileMetrics != null) { fileMetrics.lap(FileMetrics.WRITE, start); }
+			} catch (final IOException e) {
+				throw new RuntimeException("Could not anonymize: "+source, e);
+			}
+			
+			if(metrics != null) { metrics.fileAnonymized(source, fileMetrics); }
+		}
+		
+		/**
+		 * Anonymizes one file into its class#N.txt, unless its output is already cached
+		 * @param source
+		 * @param classNo
+		 */
+		private void anonymizeCached(final Path source, final int classNo) {
+			try {
+				final byte[] raw = Files.readAllBytes(source);
+				
+				final MessageDigest digest = sha256();
+				digest.update(fingerprint);
+				final byte[] key = digest.digest(raw);
+				
+				final FileMetrics fileMetrics = (metrics != null) ? new FileMetrics() : null;
+				byte[] anonymized = cached(key);
+				if(anonymized == null) {
+					final ByteArrayOutputStream registered = new ByteArrayOutputStream();
+					final ByteArrayOutputStream bytes = new ByteArrayOutputStream(raw.length);
+					//a decoder of our own reports malformed input, as anonymizeFile's reader does
+					try (final Reader in = new InputStreamReader(new ByteArrayInputStream(raw), StandardCharsets.UTF_8.newDecoder());
+							final Writer out = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+						anonymizer.anonymize(in, out, scope, fileMetrics, (scope != null) ? new DataOutputStream(registered) : null);
+						out.write('\n');
+					}
+					anonymized = bytes.toByteArray();
+					cache(key, registered, anonymized);
+				} else if(fileMetrics != null) {
+					fileMetrics.cached = true;
+				}
+				
+				Files.write(classFile(source, classNo), anonymized);
+				if(metrics != null) { metrics.fileAnonymized(source, fileMetrics); }
+			} catch (final IOException e) {
+				throw new RuntimeException("Could not anonymize: "+source, e);
+			}
+		}
+		
+		/**
+		 * Anonymizes a cramfile without reading it onto the heap
+		 * 
+		 * The file is mapped and split on {@value #DIVIDER} lines, each class is
+		 * anonymized in parallel straight from the mapping, and the results are
+		 * written with their dividers in one gathered write.  The output has the
+		 * layout of the cramfile-anon.txt written by {@link #anonymizeCorpus(Path)}.
+		 * 
+		 * @param cramfile: UTF-8 classes separated by divider lines
+		 * @param out: such as the project's cramfile-anon.txt
+		 * @return number of classes
+		 * @throws IOException
+		 */
+		public int anonymizeCramfile(final Path cramfile, final Path out) throws IOException {
+			final ByteBuffer[] segments;
+			try (final FileChannel channel = FileChannel.open(cramfile, StandardOpenOption.READ)) {
+				//the mapping stays valid after the channel is closed
+				segments = splitCramfile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+			}
+			
+			final ByteBuffer[] results = new ByteBuffer[segments.length];
+			pool.invoke(new SegmentTask(segments, results, 0, segments.length));
+			
+			final byte[] divider = (DIVIDER+"\n").getBytes(StandardCharsets.UTF_8);
+			final ByteBuffer[] gathered = new ByteBuffer[results.length*2-1];
+			long remaining = 0;
+			for(int index = 0; index < results.length; ++index) {
+				if(index > 0) {
+					gathered[index*2-1] = ByteBuffer.wrap(divider);
+					remaining += divider.length;
+				}
+				gathered[index*2] = results[index];
+				remaining += results[index].remaining();
+			}
+			
+			try (final FileChannel channel = FileChannel.open(out, StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				while(remaining > 0) {
+					remaining -= channel.write(gathered);
+				}
+			}
+			
+			return segments.length;
+		}
+		
+		/**
+		 * 
+		 * @param cramfile
+		 * @return views of the text between divider lines, dividers and their line breaks excluded
+		 */
+		static ByteBuffer[] splitCramfile(final ByteBuffer cramfile) {
+			final byte[] divider = DIVIDER.getBytes(StandardCharsets.US_ASCII);
+			final ArrayList<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+			final int end = cramfile.limit();
+			
+			int segmentStart = cramfile.position();
+			for(int lineStart = segmentStart; lineStart < end; ) {
+				int lineEnd = lineStart;
+				while(lineEnd < end && cramfile.get(lineEnd) != '\n') { ++lineEnd; }
+				
+				final int textEnd = (lineEnd > lineStart && cramfile.get(lineEnd-1) == '\r') ? lineEnd-1 : lineEnd;
+				if(textEnd-lineStart == divider.length && matches(cramfile, lineStart, divider)) {
+					segments.add(slice(cramfile, segmentStart, lineStart));
+					segmentStart = Math.min(end, lineEnd+1);
+				}
+				lineStart = lineEnd+1;
+			}
+			segments.add(slice(cramfile, segmentStart, end));
+			
+			return segments.toArray(new ByteBuffer[segments.size()]);
+		}
+		
+		private static boolean matches(final ByteBuffer buffer, final int pos, final byte[] bytes) {
+			for(int index = 0; index < bytes.length; ++index) {
+				if(buffer.get(pos+index) != bytes[index]) { return false; }
+			}
+			return true;
+		}
+		
+		private static ByteBuffer slice(final ByteBuffer buffer, final int from, final int to) {
+			return buffer.duplicate().position(from).limit(to).slice();
+		}
+		
+		/**
+		 * Anonymizes one cramfile segment, through the cache if there is one
+		 * @param segment
+		 * @return the anonymized class, ending in '\n' like a class#N.txt
+		 */
+		private ByteBuffer anonymizeSegment(final ByteBuffer segment) {
+			try {
+				byte[] key = null;
+				if(cache != null) {
+					final MessageDigest digest = sha256();
+					digest.update(fingerprint);
+					digest.update(segment.duplicate());
+					key = digest.digest();
+					
+					final byte[] cached = cached(key);
+					if(cached != null) { return ByteBuffer.wrap(cached); }
+				}
+				
+				final ByteArrayOutputStream registered = new ByteArrayOutputStream();
+				final ByteArrayChannel out = new ByteArrayChannel(segment.remaining());
+				anonymizer.anonymize(segment.duplicate(), out, StandardCharsets.UTF_8, scope,
+						(cache != null && scope != null) ? new DataOutputStream(registered) : null);
+				out.write((byte) '\n');
+				
+				if(cache == null) { return out.toByteBuffer(); }
+				
+				final byte[] anonymized = out.toByteArray();
+				cache(key, registered, anonymized);
+				return ByteBuffer.wrap(anonymized);
+			} catch (final IOException e) {
+				throw new RuntimeException("Could not anonymize cramfile segment", e);
+			}
+		}
+		
+		/**
+		 * Splits cramfile segments in half until each task holds one
+		 */
+		private final class SegmentTask extends RecursiveAction {
+			private static final long serialVersionUID = 1L;
+			
+			private final ByteBuffer[] segments;
+			private final ByteBuffer[] results;
+			private final int from;
+			private final int to;
+			
+			SegmentTask(final ByteBuffer[] segments, final ByteBuffer[] results, final int from, final int to) {
+				this.segments = segments;
+				this.results = results;
+				this.from = from;
+				this.to = to;
+			}
+			
+			@Override
+			protected void compute() {
+				if(to-from == 1) {
+					results[from] = anonymizeSegment(segments[from]);
+				} else if(to-from > 1) {
+					final int middle = (from+to) >>> 1;
+					invokeAll(new SegmentTask(segments, results, from, middle), new SegmentTask(segments, results, middle, to));
+				}
+			}
+		}
+		
+		/**
+		 * 
+		 * @param key
+		 * @return the cached output, or null if there is none or the scope numbered its names differently
+		 * @throws IOException
+		 */
+		private byte[] cached(final byte[] key) throws IOException {
+			final byte[] cached = cache.get(key);
+			if(cached == null || scope == null) { return cached; }
+			
+			//scoped entries start with the ids the file was numbered with
+			final DataInputStream entry = new DataInputStream(new ByteArrayInputStream(cached));
+			//a scope rebuilt since the entry was written may have numbered its names differently
+			return scope.replay(entry) ? entry.readAllBytes() : null;
+		}
+		
+		/**
+		 * 
+		 * @param key
+		 * @param registered: the ids the output was numbered with, empty without a scope
+		 * @param anonymized
+		 * @throws IOException
+		 */
+		private void cache(final byte[] key, final ByteArrayOutputStream registered, final byte[] anonymized) throws IOException {
+			registered.write(anonymized);
+			cache.put(key, registered.toByteArray());
+		}
+		
+		/**
+		 * Writes a project's @readme.txt and cramfile-anon.txt
+		 * @param project
+		 */
+		private static void writeIndex(final Project project) {
+			final Path dir = project.dir;
+			
+			try (final Writer readme = Files.newBufferedWriter(dir.resolve(README));
+					final OutputStream cramfile = new BufferedOutputStream(Files.newOutputStream(dir.resolve(CRAMFILE_ANON)))) {
+				
+				boolean first = true;
+				for(int classNo = 0; classNo < project.sources.size(); ++classNo) {
+					if(project.sources.get(classNo) == null) { continue; }
+					readme.write(Project.LISTED+project.listedPaths.get(classNo)+" = "+CLASS_PREFIX+classNo+"\n");
+					
+					if(!first) {
+						cramfile.write((DIVIDER+"\n").getBytes(StandardCharsets.UTF_8));
+					}
+					first = false;
+					Files.copy(classFile(project.sources.get(classNo), classNo), cramfile);
+				}
+			} catch (final IOException e) {
+				throw new RuntimeException("Could not index: "+dir, e);
+			}
+		}
+		
+		/**
+		 * Splits a range of file indices in half until each task holds one file;
+		 * idle workers steal the unsplit halves
+		 */
+		private static final class FileTask extends RecursiveAction {
+			private static final long serialVersionUID = 1L;
+			
+			//what to do with each file index
+			private final IntConsumer action;
+			private final int from;
+			private final int to;
+			
+			FileTask(final IntConsumer action, final int from, final int to) {
+				this.action = action;
+				this.from = from;
+				this.to = to;
+			}
+			
+			@Override
+			protected void compute() {
+				if(to-from == 1) {
+					action.accept(from);
+				} else if(to-from > 1) {
+					final int middle = (from+to) >>> 1;
+					invokeAll(new FileTask(action, from, middle), new FileTask(action, middle, to));
+				}
+			}
+		}
+		
+		/**
+		 * 
+		 * @param args: corpus directory, or a cramfile to anonymize into the cramfile-anon.txt next to it,
+		 * then optionally a cache file ("-" for none), then optionally a scope file, which is created or extended
+		 * @throws IOException if the cache or scope cannot be opened
+		 */
+		public static void main(final String[] args) throws IOException {
+			if(args.length == 0) {
+				System.err.println("Usage: CorpusAnonymizer <corpus directory | cramfile> [cache file | -] [scope file]");
+				return;
+			}
+			
+			final Path root = Paths.get(args[0]);
+			final Path cacheFile = (args.length > 1 && !args[1].equals("-")) ? Paths.get(args[1]) : null;
+			final Path scopeFile = (args.length > 2) ? Paths.get(args[2]) : null;
+			
+			final long start = System.nanoTime();
+			
+			CorpusScope scope = null;
+			if(scopeFile != null) {
+				scope = Files.exists(scopeFile) ? CorpusScope.load(scopeFile) : new CorpusScope();
+			}
+			
+			final int files;
+			try (final AnonymizationCache cache = (cacheFile != null) ? new AnonymizationCache(cacheFile) : null) {
+				final CorpusAnonymizer corpus = new CorpusAnonymizer(new JavaAnonymizerStandalone(), ForkJoinPool.commonPool(), cache, scope);
+				if(Files.isRegularFile(root)) {
+					files = corpus.anonymizeCramfile(root, root.resolveSibling(CRAMFILE_ANON));
+				} else {
+					files = corpus.anonymizeCorpus(root);
+				}
+			}
+			
+			if(scope != null) {
+				scope.save(scopeFile);
+			}
+			final long millis = (System.nanoTime()-start) / 1000000;
+			
+			System.out.println("Anonymized "+files+" files in "+millis+" ms");
+		}
+	}
+	
+	/**
+	 * Output of the regions of an anonymized file, looked up by their first line;
+	 * see {@link JavaAnonymizerStandalone#anonymizeReusing}
+	 * 
+	 * Filled by one thread, then only read.
+	 */
+	static final class RegionMap {
+		/**
+		 * Lines of source and the output they anonymize to
+		 */
+		static final class Region {
+			final String[] lines;
+			final String output;
+			
+			Region(final String[] lines, final String output) {
+				this.lines = lines;
+				this.output = output;
+			}
+		}
+		
+		//first region seen starting with each line
+		private final HashMap<String, Region> regions = new HashMap<String, Region>();
+		
+		/**
+		 * Records the region code[from, to)
+		 * @param code
+		 * @param from
+		 * @param to
+		 * @param output: output of the file so far
+		 * @param outputFrom: where the region's output starts
+		 */
+		void add(final String[] code, final int from, final int to, final CharSequence output, int outputFrom) {
+			if(regions.containsKey(code[from])) { return; }
+			
+			//the '\n' ending the line before belongs to the file, not the region
+			if(outputFrom < output.length() && output.charAt(outputFrom) == '\n') { ++outputFrom; }
+			regions.put(code[from], new Region(Arrays.copyOfRange(code, from, to), output.subSequence(outputFrom, output.length()).toString()));
+		}
+		
+		/**
+		 * 
+		 * @param code
+		 * @param index
+		 * @return a recorded region equal to the lines starting at code[index], or null
+		 */
+		Region find(final String[] code, final int index) {
+			final Region region = regions.get(code[index]);
+			if(region == null || index+region.lines.length > code.length) { return null; }
+			
+			for(int line = 1; line < region.lines.length; ++line) {
+				if(!region.lines[line].equals(code[index+line])) { return null; }
+			}
+			return region;
+		}
+		
+		public int size() { return regions.size(); }
+	}
+	
+	/**
+	 * MinHash signature of a source file, for finding near-duplicates
+	 * 
+	 * Comments are stripped, the rest is split into identifiers, numbers and single
+	 * symbols, and every run of {@value #SHINGLE} tokens is a shingle, hashed by a
+	 * rolling hash.  Each of the {@value #SLOTS} slots keeps the smallest value of
+	 * its own hash function over all shingles, so the share of slots two signatures
+	 * agree on estimates the Jaccard similarity of their shingle sets.  The slots are
+	 * also cut into {@value #BANDS} bands: near-duplicates very likely share a whole band,
+	 * so bands can be used as hash keys to find candidates without comparing every pair.
+	 */
+	static final class MinHashSignature {
+		static final int SLOTS = 64;
+		static final int BANDS = 16;
+		static final int SHINGLE = 5;
+		private static final int ROWS = SLOTS / BANDS;
+		private static final long PRIME = 0x100000001B3L;
+		//PRIME^SHINGLE, to take the oldest token out of the rolling hash
+		private static final long PRIME_POWER;
+		static {
+			long power = 1;
+			for(int index = 0; index < SHINGLE; ++index) { power *= PRIME; }
+			PRIME_POWER = power;
+		}
+		
+		private final long[] slots = new long[SLOTS];
+		
+		/**
+		 * 
+		 * @param text: java code; comments are stripped in place, so it is overwritten
+		 * @param length
+		 */
+		MinHashSignature(final char[] text, int length) {
+			Arrays.fill(slots, Long.MAX_VALUE);
+			length = removeJavaComments(text, length, text, null);
+			
+			final long[] window = new long[SHINGLE];
+			long shingle = 0;
+			int tokens = 0;
+			
+			for(int pos = 0; pos < length;) {
+				final char ch = text[pos++];
+				if(Character.isWhitespace(ch)) { continue; }
+				
+				long token = ch;
+				if(Character.isJavaIdentifierPart(ch)) {
+					while(pos < length && Character.isJavaIdentifierPart(text[pos])) { token = token*31 + text[pos++]; }
+				}
+				token = mix(token);
+				
+				shingle = shingle*PRIME + token - window[tokens % SHINGLE]*PRIME_POWER;
+				window[tokens % SHINGLE] = token;
+				if(++tokens >= SHINGLE) { add(shingle); }
+			}
+			
+			//a file shorter than one shingle is one shingle
+			if(tokens > 0 && tokens < SHINGLE) { add(shingle); }
+		}
+		
+		/**
+		 * Slot i hashes with mix(shingle) + i * (mix(mix(shingle)) | 1)
+		 * @param shingle
+		 */
+		private void add(final long shingle) {
+			final long base = mix(shingle);
+			final long step = mix(base) | 1;
+			
+			long value = base;
+			for(int slot = 0; slot < SLOTS; ++slot, value += step) {
+				final long hash = value ^ (value >>> 29);
+				if(hash < slots[slot]) { slots[slot] = hash; }
+			}
+		}
+		
+		/**
+		 * 
+		 * @param other
+		 * @return estimated Jaccard similarity, from 0 to 1
+		 */
+		double similarity(final MinHashSignature other) {
+			int same = 0;
+			for(int slot = 0; slot < SLOTS; ++slot) {
+				if(slots[slot] == other.slots[slot]) { ++same; }
+			}
+			return same / (double) SLOTS;
+		}
+		
+		/**
+		 * 
+		 * @param band: 0 to {@value #BANDS}-1
+		 * @return hash of the band's slots
+		 */
+		long band(final int band) {
+			long hash = band;
+			for(int slot = band*ROWS; slot < (band+1)*ROWS; ++slot) {
+				hash = mix(hash ^ slots[slot]);
+			}
+			return hash;
+		}
+		
+		//SplitMix64 finalizer
+		private static long mix(long value) {
+			value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+			value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+			return value ^ (value >>> 31);
+		}
+	}
+	
+	/**
+	 * On-disk store of anonymized files, keyed by a SHA-256 of the anonymizer's
+	 * {@link JavaAnonymizerStandalone#fingerprint()} followed by the raw source
+	 * 
+	 * The file is an append-only log of records: a 32-byte key, a 4-byte length
+	 * and that many bytes of output.  Opening the cache maps the existing log and
+	 * indexes its keys, so a lookup is one hash probe plus a copy out of the mapping.
+	 * New records are appended; a record cut short by a crash is dropped on the next open.
+	 * Safe to share between threads.
+	 */
+	public static class AnonymizationCache implements Closeable {
+		private static final int KEY_LENGTH = 32;
+		private static final int HEADER_LENGTH = KEY_LENGTH+4;
+		
+		private final FileChannel channel;
+		//the log as it was when the cache was opened
+		private final MappedByteBuffer mapped;
+		private final ConcurrentHashMap<Key, long[]> index = new ConcurrentHashMap<Key, long[]>();
+		private long end;
+		
+		/**
+		 * Opens (or creates) a cache file
+		 * @param file
+		 * @throws IOException
+		 */
+		public AnonymizationCache(final Path file) throws IOException {
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			
+			final long size = channel.size();
+			if(size > Integer.MAX_VALUE) {
+				channel.close();
+				throw new IOException("Cache file too large to map, delete it to start over: "+file);
+			}
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			
+			//index every complete record
+			int pos = 0;
+			while(pos+HEADER_LENGTH <= size) {
+				final byte[] key = new byte[KEY_LENGTH];
+				mapped.get(pos, key);
+				final int length = mapped.getInt(pos+KEY_LENGTH);
+				if(length < 0 || pos+HEADER_LENGTH+(long) length > size) { break; }
+				
+				index.put(new Key(key), new long[] { pos+HEADER_LENGTH, length });
+				pos += HEADER_LENGTH+length;
+			}
+			
+			end = pos;
+			if(end < size) { channel.truncate(end); }
+		}
+		
+		/**
+		 * 
+		 * @param key
+		 * @return the cached output, or null
+		 * @throws IOException
+		 */
+		public byte[] get(final byte[] key) throws IOException {
+			final long[] entry = index.get(new Key(key));
+			if(entry == null) { return null; }
+			
+			final byte[] value = new byte[(int) entry[1]];
+			if(entry[0]+entry[1] <= mapped.capacity()) {
+				mapped.get((int) entry[0], value);
+			} else {
+				//written since the cache was opened
+				final ByteBuffer buffer = ByteBuffer.wrap(value);
+				while(buffer.hasRemaining()) {
+					if(channel.read(buffer, entry[0]+buffer.position()) == -1) {
+						throw new EOFException("Cache entry cut short");
+					}
+				}
+			}
+			return value;
+		}
+		
+		/**
+		 * Appends an entry
+		 * @param key
+		 * @param value
+		 * @throws IOException
+		 */
+		public void put(final byte[] key, final byte[] value) throws IOException {
+			if(key.length != KEY_LENGTH) { throw new IllegalArgumentException("Keys must be SHA-256 digests"); }
+			
+			final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+			header.put(key).putInt(value.length).flip();
+			final ByteBuffer[] record = { header, ByteBuffer.wrap(value) };
+			
+			synchronized(this) {
+				channel.position(end);
+				while(record[1].hasRemaining()) {
+					channel.write(record);
+				}
+				
+				index.put(new Key(key.clone()), new long[] { end+HEADER_LENGTH, value.length });
+				end += HEADER_LENGTH+value.length;
+			}
+		}
+		
+		/** @return the number of cached files */
+		public int size() { return index.size(); }
+		
+		@Override
+		public void close() throws IOException { channel.close(); }
+		
+		/**
+		 * Digest wrapper usable as a map key
+		 */
+		private static final class Key {
+			private final byte[] digest;
+			
+			Key(final byte[] digest) { this.digest = digest; }
+			
+			@Override
+			public int hashCode() { return Arrays.hashCode(digest); }
+			
+			@Override
+			public boolean equals(final Object other) {
+				return (other instanceof Key) && Arrays.equals(digest, ((Key) other).digest);
+			}
+		}
+	}
+	
+	/**
+	 * Identifier and literal numbering shared by every file of a corpus,
+	 * so a name gets the same ident$N wherever it appears
+	 * 
+	 * Ids are handed out first come, first served and never change, so a scope
+	 * can be saved and loaded again to extend it with new files.  When files are
+	 * anonymized in parallel the order new names are numbered in depends on
+	 * scheduling, but every file still agrees on every number.
+	 */
+	public static class CorpusScope {
+		private static final int MAGIC = 0x414E5344; //"ANSD"
+		
+		//identifies this dictionary (and any saved copy of it) to caches
+		public final UUID id;
+		public final SymbolDictionary identifiers;
+		public final SymbolDictionary literals;
+		
+		/**
+		 * Constructs a new, empty CorpusScope
+		 */
+		public CorpusScope() { this(UUID.randomUUID()); }
+		
+		private CorpusScope(final UUID id) {
+			this.id = id;
+			identifiers = new SymbolDictionary();
+			literals = new SymbolDictionary();
+		}
+		
+		/**
+		 * Writes the scope out; should not run while files are being anonymized with it
+		 * @param file
+		 * @throws IOException
+		 */
+		public void save(final Path file) throws IOException {
+			try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+				out.writeInt(MAGIC);
+				out.writeLong(id.getMostSignificantBits());
+				out.writeLong(id.getLeastSignificantBits());
+				identifiers.write(out);
+				literals.write(out);
+			}
+		}
+		
+		/**
+		 * Reads a scope written by {@link #save(Path)}
+		 * @param file
+		 * @return
+		 * @throws IOException
+		 */
+		public static CorpusScope load(final Path file) throws IOException {
+			try (final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+				if(in.readInt() != MAGIC) { throw new IOException("Not a saved CorpusScope: "+file); }
+				
+				final CorpusScope scope = new CorpusScope(new UUID(in.readLong(), in.readLong()));
+				scope.identifiers.read(in);
+				scope.literals.read(in);
+				return scope;
+			}
+		}
+		
+		/**
+		 * Registers the names a cached file was numbered with, in the order the file first used them
+		 * @param registered: written by {@link Lexer#writeRegistered(DataOutputStream)}
+		 * @return false if a name has a different id in this scope than it had in the file
+		 * @throws IOException
+		 */
+		boolean replay(final DataInputStream registered) throws IOException {
+			for(final SymbolDictionary dictionary: new SymbolDictionary[] { identifiers, literals }) {
+				for(int count = registered.readInt(); count > 0; --count) {
+					final int id = registered.readInt();
+					if(dictionary.idOf(SymbolDictionary.readName(registered)) != id) { return false; }
+				}
+			}
+			return true;
+		}
+	}
+	
+	/**
+	 * Thread-safe name to id map, numbering names in the order they are first added
+	 * 
+	 * New ids come from one counter inside ConcurrentHashMap.computeIfAbsent,
+	 * which only locks the bin being added to; looking up a known name takes no lock.
+	 */
+	public static class SymbolDictionary {
+		private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+		private final AtomicInteger next = new AtomicInteger();
+		
+		/**
+		 * 
+		 * @param name
+		 * @return the id of a name, giving it the next free id if it is new
+		 */
+		public int idOf(final String name) {
+			final Integer known = ids.get(name);
+			if(known != null) { return known; }
+			return ids.computeIfAbsent(name, key -> next.getAndIncrement());
+		}
+		
+		/** @return the number of names */
+		public int size() { return next.get(); }
+		
+		/** @return every name, indexed by id */
+		public String[] names() {
+			final String[] names = new String[next.get()];
+			for(final Map.Entry<String, Integer> entry: ids.entrySet()) {
+				if(entry.getValue() < names.length) {
+					names[entry.getValue()] = entry.getKey();
+				}
+			}
+			return names;
+		}
+		
+		private void write(final DataOutputStream out) throws IOException {
+			final String[] names = names();
+			out.writeInt(names.length);
+			for(final String name: names) {
+				writeName(out, name);
+			}
+		}
+		
+		private void read(final DataInputStream in) throws IOException {
+			final int count = in.readInt();
+			for(int id = 0; id < count; ++id) {
+				ids.put(readName(in), id);
+			}
+			next.set(count);
+		}
+		
+		static void writeName(final DataOutputStream out, final String name) throws IOException {
+			final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+		
+		static String readName(final DataInputStream in) throws IOException {
+			final byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+	
+	/**
+	 * Rules for identifiers that are not keywords: which keep their names and how the rest are renamed
+	 * 
+	 * Rules are compiled once, kept names into a {@link KeywordMatcher} and the
+	 * method name regex into a {@link Pattern}.  A Lexer applies them the first
+	 * time it sees each distinct identifier and remembers the result, so the
+	 * per-token cost is an array read whatever the rules are.
+	 */
+	public static final class AnonymizationPolicy {
+		//common types of java.lang, java.util, java.util.function, java.util.concurrent and java.io
+		public static final String[] JDK_TYPES = new String[] {
+				"Object", "String", "StringBuilder", "StringBuffer", "CharSequence", "Class", "ClassLoader",
+				"Boolean", "Byte", "Character", "Short", "Integer", "Long", "Float", "Double", "Number", "Void",
+				"Math", "StrictMath", "System", "Runtime", "Thread", "ThreadLocal", "Runnable", "Iterable",
+				"Comparable", "AutoCloseable", "Cloneable", "Enum", "Record", "Override", "Deprecated",
+				"SuppressWarnings", "FunctionalInterface", "SafeVarargs", "Throwable", "Exception", "Error",
+				"RuntimeException", "IllegalArgumentException", "IllegalStateException", "NullPointerException",
+				"IndexOutOfBoundsException", "ArrayIndexOutOfBoundsException", "ClassCastException",
+				"UnsupportedOperationException", "ArithmeticException", "NumberFormatException",
+				"InterruptedException", "CloneNotSupportedException", "ClassNotFoundException",
+				"SecurityException", "OutOfMemoryError", "StackOverflowError", "AssertionError",
+				"Collection", "List", "ArrayList", "LinkedList", "Set", "HashSet", "LinkedHashSet", "TreeSet",
+				"SortedSet", "NavigableSet", "Map", "HashMap", "LinkedHashMap", "TreeMap", "SortedMap",
+				"NavigableMap", "Hashtable", "Vector", "Stack", "Queue", "Deque", "ArrayDeque", "PriorityQueue",
+				"Iterator", "ListIterator", "Collections", "Arrays", "Objects", "Optional", "OptionalInt",
+				"OptionalLong", "OptionalDouble", "Comparator", "Random", "UUID", "Locale", "Date", "Calendar",
+				"Properties", "BitSet", "EnumSet", "EnumMap", "IdentityHashMap", "WeakHashMap", "Scanner",
+				"StringJoiner", "NoSuchElementException", "ConcurrentModificationException",
+				"Function", "BiFunction", "Supplier", "Consumer", "BiConsumer", "Predicate", "BiPredicate",
+				"UnaryOperator", "BinaryOperator", "Stream", "Collectors",
+				"ConcurrentHashMap", "ConcurrentMap", "CopyOnWriteArrayList", "BlockingQueue",
+				"LinkedBlockingQueue", "ArrayBlockingQueue", "Executor", "ExecutorService", "Executors",
+				"Future", "CompletableFuture", "Callable", "TimeUnit", "CountDownLatch", "Semaphore",
+				"TimeoutException", "ExecutionException", "AtomicInteger", "AtomicLong", "AtomicBoolean",
+				"AtomicReference", "Lock", "ReentrantLock", "ReadWriteLock", "ReentrantReadWriteLock",
+				"File", "InputStream", "OutputStream", "Reader", "Writer", "BufferedReader", "BufferedWriter",
+				"InputStreamReader", "OutputStreamWriter", "PrintStream", "PrintWriter", "Closeable",
+				"Serializable", "IOException", "FileNotFoundException", "UncheckedIOException", "EOFException"
+		};
+		
+		//rule bits of an identifier
+		static final byte KEEP = 1;
+		static final byte METHOD = 2;
+		
+		//renames every identifier by number
+		public static final AnonymizationPolicy NONE = new AnonymizationPolicy(null, null, false, null);
+		
+		//null if no names are kept
+		private final KeywordMatcher keptNames;
+		//null if no method names are kept
+		private final Pattern methodNames;
+		public final boolean keepAnnotations;
+		//null to number identifiers
+		private final IdentifierHasher hasher;
+		
+		/**
+		 * 
+		 * @param keptNames: identifiers never renamed, such as {@link #JDK_TYPES}; may be null
+		 * @param methodNames: regex of method names (an identifier followed by '(') never renamed; may be null
+		 * @param keepAnnotations: whether identifiers right after an '@' are never renamed
+		 * @param hasher: renames identifiers by hash instead of by number; may be null
+		 */
+		public AnonymizationPolicy(final String[] keptNames, final String methodNames, final boolean keepAnnotations,
+				final IdentifierHasher hasher) {
+			this.keptNames = (keptNames != null && keptNames.length > 0) ? new KeywordMatcher(keptNames) : null;
+			this.methodNames = (methodNames != null) ? Pattern.compile(methodNames) : null;
+			this.keepAnnotations = keepAnnotations;
+			this.hasher = hasher;
+		}
+		
+		/** @return null if identifiers are numbered */
+		public IdentifierHasher hasher() { return hasher; }
+		
+		/**
+		 * 
+		 * @param text
+		 * @param length
+		 * @return the rule bits of an identifier
+		 */
+		byte rules(final char[] text, final int length) {
+			byte rules = 0;
+			if(keptNames != null && keptNames.indexOf(text, 0, length) != -1) {
+				rules |= KEEP;
+			}
+			if(methodNames != null && methodNames.matcher(CharBuffer.wrap(text, 0, length)).matches()) {
+				rules |= METHOD;
+			}
+			return rules;
+		}
+		
+		/**
+		 * Adds the rules to a digest
+		 * @param digest
+		 */
+		void fingerprint(final MessageDigest digest) {
+			if(keptNames != null) {
+				digest.update((byte) 'k');
+				keptNames.fingerprint(digest);
+			}
+			if(methodNames != null) {
+				digest.update(("m"+methodNames.pattern()+"\u0000").getBytes(StandardCharsets.UTF_8));
+			}
+			if(keepAnnotations) { digest.update((byte) 'a'); }
+			if(hasher != null) {
+				digest.update((byte) 'h');
+				hasher.fingerprint(digest);
+			}
+		}
+	}
+	
+	/**
+	 * Renames identifiers and literals by a hash of their text instead of by order of appearance
+	 * 
+	 * The same name gets the same ident$N in every file, shard and process that
+	 * uses the same key and width, so pieces of a corpus (or of one file) can be
+	 * anonymized independently and put back together without coordination.
+	 * With collision detection on, every hash handed out is remembered and two
+	 * different texts hashing alike stop the run instead of silently merging;
+	 * a wider width makes that less likely.
+	 */
+	public static class IdentifierHasher {
+		//widest hash; fits the value of a TokenStream token
+		public static final int BITS = 28;
+		private static final int MIN_BITS = 8;
+		private static final String HMAC = "HmacSHA256";
+		
+		//null for plain SHA-256
+		private final byte[] key;
+		private final int bits;
+		private final ThreadLocal<Mac> macs;
+		//text of every hash handed out, or null if collisions are not checked
+		private final ConcurrentHashMap<Integer, String> identifierTexts;
+		private final ConcurrentHashMap<Integer, String> literalTexts;
+		
+		/**
+		 * Unkeyed {@value #BITS}-bit SHA-256, without collision detection
+		 */
+		public IdentifierHasher() { this(null, BITS, false); }
+		
+		/**
+		 * 
+		 * @param key: HMAC-SHA256 key, shared by every worker; null for plain SHA-256
+		 * @param bits: width of the hashes, 8 to {@value #BITS}
+		 * @param detectCollisions: whether to fail when two texts get the same hash
+		 */
+		public IdentifierHasher(final byte[] key, final int bits, final boolean detectCollisions) {
+			if(bits < MIN_BITS || bits > BITS) {
+				throw new IllegalArgumentException("Hash width must be "+MIN_BITS+" to "+BITS+" bits: "+bits);
+			}
+			if(key != null && key.length == 0) {
+				throw new IllegalArgumentException("Empty HMAC key");
+			}
+			
+			this.key = (key != null) ? key.clone() : null;
+			this.bits = bits;
+			macs = (key != null) ? ThreadLocal.withInitial(this::newMac) : null;
+			identifierTexts = detectCollisions ? new ConcurrentHashMap<Integer, String>() : null;
+			literalTexts = detectCollisions ? new ConcurrentHashMap<Integer, String>() : null;
+		}
+		
+		/**
+		 * 
+		 * @param text
+		 * @param length
+		 * @return the hash of an identifier
+		 * @throws IllegalStateException if it collides with another identifier
+		 */
+		public int hash(final char[] text, final int length) {
+			return hash(text, length, identifierTexts);
+		}
+		
+		/**
+		 * 
+		 * @param text
+		 * @param length
+		 * @return the hash of a literal, quotes included
+		 * @throws IllegalStateException if it collides with another literal
+		 */
+		public int hashLiteral(final char[] text, final int length) {
+			return hash(text, length, literalTexts);
+		}
+		
+		private int hash(final char[] text, final int length, final ConcurrentHashMap<Integer, String> texts) {
+			final String name = new String(text, 0, length);
+			final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+			final byte[] digest = (macs != null) ? macs.get().doFinal(bytes) : sha256().digest(bytes);
+			
+			final int first = ((digest[0] & 0xFF) << 24) | ((digest[1] & 0xFF) << 16) | ((digest[2] & 0xFF) << 8) | (digest[3] & 0xFF);
+			final int hash = first >>> (32-bits);
+			
+			if(texts != null) {
+				final String previous = texts.putIfAbsent(hash, name);
+				if(previous != null && !previous.equals(name)) {
+					throw new IllegalStateException("Hash collision at "+bits+" bits: \""+previous+"\" and \""+name+"\"");
+				}
+			}
+			return hash;
+		}
+		
+		private Mac newMac() {
+			try {
+				final Mac mac = Mac.getInstance(HMAC);
+				mac.init(new SecretKeySpec(key, HMAC));
+				return mac;
+			} catch (final NoSuchAlgorithmException | InvalidKeyException e) {
+				throw new IllegalStateException(HMAC+" unavailable", e);
+			}
+		}
+		
+		/**
+		 * Adds what decides the hashes to a digest; the key only as its own SHA-256
+		 * @param digest
+		 */
+		void fingerprint(final MessageDigest digest) {
+			if(key == null) {
+				digest.update(("sha256/"+bits).getBytes(StandardCharsets.UTF_8));
+			} else {
+				digest.update(("hmac/"+bits+"/").getBytes(StandardCharsets.UTF_8));
+				digest.update(sha256().digest(key));
+			}
+		}
+	}
+	
+	/**
+	 * Reverses the anonymization of one file without re-running the anonymizer
+	 * 
+	 * Written next to an anonymized file as a compact binary side-car, laid out
+	 * so it can be mapped and read in place: a header of counts, then offset
+	 * tables for the identifier and literal pools, the source line of each
+	 * output line, and the two pools as UTF-16.  Looking up ident$N, literal$N or
+	 * an output line's source line is a couple of array reads.
+	 */
+	public static class DeanonymizationMap {
+		private static final int MAGIC = 0x414E444D; //"ANDM"
+		private static final int VERSION = 1;
+		private static final int HEADER_INTS = 7;
+		
+		private static final String IDENT = "ident$";
+		private static final String LITERAL = "literal$";
+		private static final String CHAR_LITERAL = "char-literal$";
+		
+		private final IntBuffer identifierOffsets;
+		private final IntBuffer literalOffsets;
+		private final IntBuffer lines;
+		private final CharBuffer identifierPool;
+		private final CharBuffer literalPool;
+		
+		private DeanonymizationMap(final ByteBuffer buffer) throws IOException {
+			final IntBuffer header = buffer.asIntBuffer();
+			if(header.get(0) != MAGIC || header.get(1) != VERSION) {
+				throw new IOException("Not a deanonymization map");
+			}
+			
+			final int identifierCount = header.get(2);
+			final int literalCount = header.get(3);
+			final int lineCount = header.get(4);
+			final int identifierChars = header.get(5);
+			final int literalChars = header.get(6);
+			
+			int pos = HEADER_INTS*4;
+			identifierOffsets = slice(buffer, pos, (identifierCount+1)*4).asIntBuffer();
+			pos += (identifierCount+1)*4;
+			literalOffsets = slice(buffer, pos, (literalCount+1)*4).asIntBuffer();
+			pos += (literalCount+1)*4;
+			lines = slice(buffer, pos, lineCount*4).asIntBuffer();
+			pos += lineCount*4;
+			identifierPool = slice(buffer, pos, identifierChars*2).asCharBuffer();
+			pos += identifierChars*2;
+			literalPool = slice(buffer, pos, literalChars*2).asCharBuffer();
+		}
+		
+		/**
+		 * Maps a side-car written by {@link JavaAnonymizerStandalone#anonymize(Reader, Writer, Path)}
+		 * @param file
+		 * @return
+		 * @throws IOException
+		 */
+		public static DeanonymizationMap open(final Path file) throws IOException {
+			try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				return new DeanonymizationMap(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+			}
+		}
+		
+		/**
+		 * 
+		 * @param id: N of ident$N
+		 * @return the original identifier
+		 */
+		public String identifier(final int id) {
+			return identifierPool.subSequence(identifierOffsets.get(id), identifierOffsets.get(id+1)).toString();
+		}
+		
+		/**
+		 * 
+		 * @param id: N of literal$N or char-literal$N
+		 * @return the original literal, including its quotes
+		 */
+		public String literal(final int id) {
+			return literalPool.subSequence(literalOffsets.get(id), literalOffsets.get(id+1)).toString();
+		}
+		
+		public int identifierCount() { return identifierOffsets.limit()-1; }
+		public int literalCount() { return literalOffsets.limit()-1; }
+		public int lineCount() { return lines.limit(); }
+		
+		/**
+		 * 
+		 * @param outputLine: 0-based line of the anonymized file
+		 * @return the 1-based line of the source it came from
+		 */
+		public int originalLine(final int outputLine) { return lines.get(outputLine); }
+		
+		/**
+		 * Replaces every ident$N, "literal$N" and 'char-literal$N' in a text
+		 * (such as LLM output about an anonymized file) with the original
+		 * @param text
+		 * @return
+		 */
+		public String deanonymize(final CharSequence text) {
+			final StringBuilder builder = new StringBuilder(text.length());
+			
+			int pos = 0;
+			while(pos < text.length()) {
+				if(startsWith(text, pos, CHAR_LITERAL) || startsWith(text, pos, LITERAL)) {
+					final int start = pos + (startsWith(text, pos, LITERAL) ? LITERAL.length() : CHAR_LITERAL.length());
+					final int end = digitsEnd(text, start);
+					final int id = parseId(text, start, end);
+					
+					if(id >= 0 && id < literalCount()) {
+						//the quotes around the placeholder belong to the literal
+						final char last = (builder.length() > 0) ? builder.charAt(builder.length()-1) : 0;
+						final boolean quoted = (last == '"' || last == '\'') && end < text.length() && text.charAt(end) == last;
+						if(quoted) { builder.setLength(builder.length()-1); }
+						builder.append(literal(id));
+						pos = quoted ? end+1 : end;
+						continue;
+					}
+				} else if(startsWith(text, pos, IDENT)) {
+					final int start = pos+IDENT.length();
+					final int end = digitsEnd(text, start);
+					final int id = parseId(text, start, end);
+					
+					if(id >= 0 && id < identifierCount()) {
+						builder.append(identifier(id));
+						pos = end;
+						continue;
+					}
+				}
+				
+				builder.append(text.charAt(pos++));
+			}
+			
+			return builder.toString();
+		}
+		
+		/**
+		 * Writes the map of a finished Lexer
+		 * @param file
+		 * @param lexer
+		 * @throws IOException
+		 */
+		private static void write(final Path file, final Lexer lexer) throws IOException {
+			final SymbolTable identifiers = lexer.tokens;
+			final SymbolTable literals = lexer.literals;
+			
+			final int bytes = HEADER_INTS*4 + (identifiers.size()+1)*4 + (literals.size()+1)*4
+					+ lexer.outputLines*4 + identifiers.poolLength*2 + literals.poolLength*2;
+			final ByteBuffer buffer = ByteBuffer.allocate(bytes);
+			
+			buffer.putInt(MAGIC).putInt(VERSION);
+			buffer.putInt(identifiers.size()).putInt(literals.size()).putInt(lexer.outputLines);
+			buffer.putInt(identifiers.poolLength).putInt(literals.poolLength);
+			
+			//symbols are pooled in id order, so each offset table is just the running total
+			for(int id = 0; id <= identifiers.size(); ++id) {
+				buffer.putInt((id < identifiers.size()) ? identifiers.offsets[id] : identifiers.poolLength);
+			}
+			for(int id = 0; id <= literals.size(); ++id) {
+				buffer.putInt((id < literals.size()) ? literals.offsets[id] : literals.poolLength);
+			}
+			for(int line = 0; line < lexer.outputLines; ++line) {
+				buffer.putInt(lexer.lineOrigins[line]);
+			}
+			buffer.asCharBuffer().put(identifiers.pool, 0, identifiers.poolLength);
+			buffer.position(buffer.position()+identifiers.poolLength*2);
+			buffer.asCharBuffer().put(literals.pool, 0, literals.poolLength);
+			buffer.position(buffer.capacity());
+			
+			buffer.flip();
+			try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				while(buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+		}
+		
+		private static ByteBuffer slice(final ByteBuffer buffer, final int pos, final int length) {
+			return buffer.duplicate().position(pos).limit(pos+length).slice();
+		}
+		
+		private static boolean startsWith(final CharSequence text, final int pos, final String prefix) {
+			if(pos+prefix.length() > text.length()) { return false; }
+			for(int index = 0; index < prefix.length(); ++index) {
+				if(text.charAt(pos+index) != prefix.charAt(index)) { return false; }
+			}
+			return true;
+		}
+		
+		private static int digitsEnd(final CharSequence text, int pos) {
+			while(pos < text.length() && text.charAt(pos) >= '0' && text.charAt(pos) <= '9') { ++pos; }
+			return pos;
+		}
+		
+		/** @return the number in text[start, end), or -1 if there is none or it is too long */
+		private static int parseId(final CharSequence text, final int start, final int end) {
+			if(end == start || end-start > 9) { return -1; }
+			int id = 0;
+			for(int pos = start; pos < end; ++pos) {
+				id = id*10 + (text.charAt(pos)-'0');
+			}
+			return id;
+		}
+	}
+	
+	/**
+	 * Per-thread scratch space of a JavaAnonymizerStandalone, reused from file to file
+	 * so that batch anonymization settles into allocating next to nothing
+	 * 
+	 * Holds a text-producing {@link Lexer}, reset before each file, the buffers of the
+	 * streaming methods and the coders of the last charset used.  The lexer's tables and
+	 * the line buffer keep the size of the largest file seen; an output buffer grown past
+	 * {@value #MAX_RETAINED} characters is let go when the arena is released.
+	 */
+	private static final class Arena {
+		private static final int MAX_RETAINED = 1 << 20;
+		
+		final Lexer lexer;
+		final char[] chunk = new char[CHUNK_SIZE];
+		final ByteBuffer bytesIn = ByteBuffer.allocate(CHUNK_SIZE);
+		final ByteBuffer bytesOut = ByteBuffer.allocate(CHUNK_SIZE);
+		final CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+		final CharBuffer charsOut = CharBuffer.allocate(CHUNK_SIZE);
+		//one line of a String[] file
+		private char[] line = new char[128];
+		
+		private Charset charset;
+		private CharsetDecoder decoder;
+		private CharsetEncoder encoder;
+		
+		//taken by a call on the owning thread
+		boolean inUse = false;
+		
+		Arena(final JavaAnonymizerStandalone owner) {
+			lexer = new Lexer(owner, null);
+		}
+		
+		/**
+		 * 
+		 * @param text
+		 * @return the line buffer holding text from index 0
+		 */
+		char[] line(final String text) {
+			final int length = text.length();
+			if(length > line.length) { line = new char[Math.max(length, line.length*2)]; }
+			text.getChars(0, length, line, 0);
+			return line;
+		}
+		
+		/** @return a reset decoder reporting malformed and unmappable input */
+		CharsetDecoder decoder(final Charset charset) {
+			coders(charset);
+			return decoder.reset();
+		}
+		
+		/** @return a reset encoder reporting malformed and unmappable input */
+		CharsetEncoder encoder(final Charset charset) {
+			coders(charset);
+			return encoder.reset();
+		}
+		
+		private void coders(final Charset charset) {
+			if(charset.equals(this.charset)) { return; }
+			
+			this.charset = charset;
+			decoder = charset.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPORT)
+					.onUnmappableCharacter(CodingErrorAction.REPORT);
+			encoder = charset.newEncoder()
+					.onMalformedInput(CodingErrorAction.REPORT)
+					.onUnmappableCharacter(CodingErrorAction.REPORT);
+		}
+		
+		/**
+		 * Empties the byte and char buffers, which an exception may have left part full
+		 */
+		void clearBuffers() {
+			bytesIn.clear();
+			bytesOut.clear();
+			chars.clear();
+			charsOut.clear();
+		}
+		
+		void release() {
+			if(lexer.output.capacity() > MAX_RETAINED) {
+				lexer.output.setLength(0);
+				lexer.output.trimToSize();
+			}
+			inUse = false;
+		}
+	}
+	
+	/**
+	 * Streaming tokenizer behind {@link JavaAnonymizerStandalone#anonamize(String[])}
+	 * 
+	 * A single forward pass over the source: unicode escapes are translated as
+	 * characters arrive, then a state machine driven by a character class table
+	 * recognizes comments, string, char and text block literals (with their
+	 * escapes), identifiers, keywords (including non-sealed) and number literals.
+	 * A state only ever needs the current character, so nothing is scanned twice
+	 * and no stage needs the whole text in memory.
+	 * 
+	 * Comments count as whitespace; whitespace runs become one space, lines are
+	 * trimmed and blank lines dropped.  A text block is renamed like any other
+	 * string literal and stays on the line it starts on.
+	 */
+	private static final class Lexer {
+		/*
+		 * Character classes
+		 */
+		private static final byte SPACE = 0;
+		private static final byte NEWLINE = 1;
+		private static final byte IDENT_START = 2;
+		private static final byte DIGIT = 3;
+		private static final byte DOUBLE_QUOTE = 4;
+		private static final byte SINGLE_QUOTE = 5;
+		private static final byte SLASH = 6;
+		private static final byte OTHER = 7;
+		//identifier part that cannot start an identifier (besides digits)
+		private static final byte IDENT_PART = 8;
+		
+		private static final byte[] ASCII_CLASSES = new byte[128];
+		static {
+			for(char ch = 0; ch < 128; ++ch) {
+				if(ch == '\n') {
+					ASCII_CLASSES[ch] = NEWLINE;
+				} else if(ch <= ' ') {
+					//trim() drops all of these, so they are whitespace too
+					ASCII_CLASSES[ch] = Character.isJavaIdentifierPart(ch) ? IDENT_PART : SPACE;
+				} else if(ch >= '0' && ch <= '9') {
+					ASCII_CLASSES[ch] = DIGIT;
+				} else if(Character.isJavaIdentifierStart(ch)) {
+					ASCII_CLASSES[ch] = IDENT_START;
+				} else if(ch == '"') {
+					ASCII_CLASSES[ch] = DOUBLE_QUOTE;
+				} else if(ch == '\'') {
+					ASCII_CLASSES[ch] = SINGLE_QUOTE;
+				} else if(ch == '/') {
+					ASCII_CLASSES[ch] = SLASH;
+				} else {
+					ASCII_CLASSES[ch] = Character.isJavaIdentifierPart(ch) ? IDENT_PART : OTHER;
+				}
+			}
+		}
+		
+		/*
+		 * States
+		 */
+		private static final int CODE = 0;
+		private static final int IDENTIFIER = 1;
+		//after "non-", when non-sealed is a keyword
+		private static final int NON_SEALED = 2;
+		private static final int NUMBER = 3;
+		//after a '/' that may start a comment
+		private static final int SLASH_SEEN = 4;
+		private static final int LINE_COMMENT = 5;
+		private static final int BLOCK_COMMENT = 6;
+		private static final int BLOCK_COMMENT_STAR = 7;
+		//after one and two '"' that may open a text block
+		private static final int QUOTE_1 = 8;
+		private static final int QUOTE_2 = 9;
+		private static final int STRING = 10;
+		private static final int STRING_ESCAPE = 11;
+		private static final int CHAR = 12;
+		private static final int CHAR_ESCAPE = 13;
+		private static final int TEXT_BLOCK = 14;
+		private static final int TEXT_BLOCK_ESCAPE = 15;
+		//after an identifier that keeps its name if it names a method
+		private static final int METHOD_NAME = 16;
+		
+		private static final String SEALED = "sealed";
+		
+		private final JavaAnonymizerStandalone owner;
+		
+		final StringBuilder output = new StringBuilder();
+		//where renamed tokens and other characters go; writes to output unless tokenizing
+		private LexerSink sink;
+		//sink before counting, and the counting wrapper kept for reuse
+		private final LexerSink target;
+		private CountingSink counting;
+		
+		private final SymbolTable tokens = new SymbolTable();
+		private final SymbolTable literals = new SymbolTable();
+		
+		//shared numbering, or null; ids are looked up once per file and cached by local id
+		private CorpusScope scope;
+		private int[] scopeTokenIds;
+		private int[] scopeLiteralIds;
+		//keyword index of each token id (-1 if not a keyword), decided once when the token is first seen
+		private int[] keywordIds = new int[64];
+		//policy rules of each token id, decided at the same time
+		private final AnonymizationPolicy policy;
+		private byte[] symbolRules = new byte[64];
+		//hash of each token and literal id, if the policy hashes identifiers
+		private int[] hashedIds;
+		private int[] hashedLiteralIds;
+		
+		/*
+		 * Unicode escape translation
+		 */
+		//a '\' that may start a unicode escape, its 'u's and hex digits so far
+		private final CharRun escape = new CharRun();
+		private int escapeValue = 0;
+		private int escapeDigits = 0;
+		//consecutive raw '\' before the current character
+		private int backslashes = 0;
+		
+		/*
+		 * Tokens
+		 */
+		private int state = CODE;
+		//identifier or literal being read
+		private final CharRun tokenBuilder = new CharRun();
+		//"sealed" so far, after "non-"
+		private int sealedMatched = 0;
+		private boolean numberHex = false;
+		private char numberPrev = 0;
+		//'"' read so far that may close a text block
+		private int closingQuotes = 0;
+		//whether the token follows an '@'
+		private boolean afterAt = false;
+		private boolean annotation = false;
+		//token id waiting to see if a '(' follows
+		private int methodCandidate = -1;
+		
+		/*
+		 * Lines
+		 */
+		//1-based line of the source being read
+		private int rawLine = 1;
+		private boolean lineHasContent = false;
+		private boolean anyLine = false;
+		//whitespace or a comment since the last token on this line
+		private boolean pendingSpace = false;
+		//source line of the line being emitted
+		private int lineOrigin = 0;
+		//source line of each output line, if recording
+		private int[] lineOrigins = null;
+		private int outputLines = 0;
+		
+		/**
+		 * 
+		 * @param owner
+		 * @param scope: may be null
+		 */
+		Lexer(final JavaAnonymizerStandalone owner, final CorpusScope scope) {
+			this(owner, scope, null);
+		}
+		
+		/**
+		 * 
+		 * @param owner
+		 * @param scope: may be null
+		 * @param sink: null to produce text in {@link #output}
+		 */
+		Lexer(final JavaAnonymizerStandalone owner, final CorpusScope scope, final LexerSink sink) {
+			this(owner, scope, sink, null);
+		}
+		
+		/**
+		 * 
+		 * @param owner
+		 * @param scope: may be null
+		 * @param sink: null to produce text in {@link #output}
+		 * @param metrics: counts tokens into it; null to not count
+		 */
+		Lexer(final JavaAnonymizerStandalone owner, final CorpusScope scope, final LexerSink sink, final FileMetrics metrics) {
+			this.owner = owner;
+			this.scope = scope;
+			this.target = (sink == null) ? new TextSink(output) : sink;
+			this.sink = (metrics == null) ? target : (counting = new CountingSink(target, metrics));
+			this.policy = owner.policy;
+			if(policy.hasher() != null) {
+				hashedIds = new int[64];
+				hashedLiteralIds = new int[64];
+			}
+			if(scope != null) {
+				scopeTokenIds = new int[64];
+				scopeLiteralIds = new int[64];
+			}
+		}
+		
+		/**
+		 * Readies the lexer for another file, keeping every buffer and table it has grown
+		 * @param scope: may be null
+		 * @param metrics: counts tokens into it; null to not count
+		 */
+		void reset(final CorpusScope scope, final FileMetrics metrics) {
+			this.scope = scope;
+			if(scope != null && scopeTokenIds == null) {
+				//grows along with keywordIds
+				scopeTokenIds = new int[keywordIds.length];
+				scopeLiteralIds = new int[64];
+			} else if(scope != null && scopeTokenIds.length < keywordIds.length) {
+				//keywordIds grew during an unscoped file
+				scopeTokenIds = Arrays.copyOf(scopeTokenIds, keywordIds.length);
+			}
+			if(metrics == null) {
+				sink = target;
+			} else if(counting == null) {
+				sink = counting = new CountingSink(target, metrics);
+			} else {
+				counting.metrics = metrics;
+				sink = counting;
+			}
+			
+			output.setLength(0);
+			tokens.clear();
+			literals.clear();
+			
+			escape.clear();
+			escapeValue = 0;
+			escapeDigits = 0;
+			backslashes = 0;
+			
+			state = CODE;
+			tokenBuilder.clear();
+			sealedMatched = 0;
+			numberHex = false;
+			numberPrev = 0;
+			closingQuotes = 0;
+			afterAt = false;
+			annotation = false;
+			methodCandidate = -1;
+			
+			rawLine = 1;
+			lineHasContent = false;
+			anyLine = false;
+			pendingSpace = false;
+			lineOrigin = 0;
+			lineOrigins = null;
+			outputLines = 0;
+		}
+		
+		/**
+		 * Feeds a run of raw source characters
+		 * @param text
+		 * @param offset
+		 * @param length
+		 */
+		void accept(final char[] text, final int offset, final int length) {
+			final int end = offset+length;
+			for(int pos = offset; pos < end; ++pos) {
+				accept(text[pos]);
+			}
+		}
+		
+		/**
+		 * Unicode escape stage: translates backslash u+ XXXX when the backslash is
+		 * not itself escaped, and passes everything else through
+		 * @param ch: raw source character
+		 */
+		void accept(final char ch) {
+			if(escape.length > 0 && continueEscape(ch)) {
+				backslashes = 0;
+				return;
+			}
+			
+			if(ch == '\\' && backslashes % 2 == 0) {
+				escape.append(ch);
+				escapeValue = 0;
+				escapeDigits = 0;
+			} else {
+				lex(ch);
+			}
+			backslashes = (ch == '\\') ? backslashes+1 : 0;
+		}
+		
+		/**
+		 * 
+		 * @param ch: raw source character following a possible escape
+		 * @return true if ch was part of the escape
+		 */
+		private boolean continueEscape(final char ch) {
+			if(ch == 'u' && escapeDigits == 0) {
+				escape.append(ch);
+				return true;
+			}
+			
+			final int digit = Character.digit(ch, 16);
+			if(escape.length > 1 && digit != -1 && ch < 128) {
+				escape.append(ch);
+				escapeValue = escapeValue*16 + digit;
+				if(++escapeDigits == 4) {
+					escape.clear();
+					lex((char) escapeValue);
+				}
+				return true;
+			}
+			
+			//not an escape after all
+			flushEscape();
+			return false;
+		}
+		
+		private void flushEscape() {
+			final int length = escape.length;
+			escape.length = 0;
+			for(int index = 0; index < length; ++index) {
+				lex(escape.chars[index]);
+			}
+		}
+		
+		/**
+		 * Token stage
+		 * @param ch: source character, after unicode escapes
+		 */
+		private void lex(final char ch) {
+			while(!step(ch)) {
+				//the state changed without using ch; feed it again
+			}
+			if(ch == '\n') { ++rawLine; }
+		}
+		
+		/**
+		 * Advances the state machine by one character
+		 * @param ch
+		 * @return false if ch still has to be handled in the new state
+		 */
+		private boolean step(final char ch) {
+			switch(state) {
+			case CODE:
+				return code(ch);
+			case IDENTIFIER:
+				if(Character.isJavaIdentifierPart(ch)) {
+					tokenBuilder.append(ch);
+					return true;
+				}
+				
+				if(ch == '-' && owner.preserve_non_sealed && isNon()) {
+					sealedMatched = 0;
+					state = NON_SEALED;
+					return true;
+				}
+				
+				state = CODE;
+				emitIdentifier(true);
+				return false;
+			case NON_SEALED:
+				if(sealedMatched < SEALED.length() && ch == SEALED.charAt(sealedMatched)) {
+					++sealedMatched;
+					return true;
+				}
+				
+				if(sealedMatched == SEALED.length() && !Character.isJavaIdentifierPart(ch)) {
+					tokenBuilder.append('-');
+					for(int index = 0; index < SEALED.length(); ++index) { tokenBuilder.append(SEALED.charAt(index)); }
+					state = CODE;
+					emitIdentifier(true);
+					return false;
+				}
+				
+				//just "non" followed by a minus: replay what was matched
+				emitIdentifier(false);
+				sink.character('-');
+				state = CODE;
+				for(int index = 0; index < sealedMatched; ++index) { lex(SEALED.charAt(index)); }
+				return false;
+			case NUMBER:
+				final boolean exponentSign = (ch == '+' || ch == '-')
+						&& ((!numberHex && (numberPrev == 'e' || numberPrev == 'E')) || numberPrev == 'p' || numberPrev == 'P');
+				if(Character.isJavaIdentifierPart(ch) || ch == '.' || exponentSign) {
+					if(numberPrev == '0' && (ch == 'x' || ch == 'X') && tokenBuilder.length == 1) { numberHex = true; }
+					tokenBuilder.append(ch);
+					numberPrev = ch;
+					sink.character(ch);
+					return true;
+				}
+				state = CODE;
+				return false;
+			case SLASH_SEEN:
+				if(ch == '/') {
+					state = LINE_COMMENT;
+				} else if(ch == '*') {
+					state = BLOCK_COMMENT;
+				} else {
+					begin();
+					sink.character('/');
+					state = CODE;
+					return false;
+				}
+				pendingSpace = lineHasContent;
+				return true;
+			case LINE_COMMENT:
+				if(ch != '\n') { return true; }
+				state = CODE;
+				return false;
+			case BLOCK_COMMENT:
+			case BLOCK_COMMENT_STAR:
+				if(ch == '/' && state == BLOCK_COMMENT_STAR) {
+					pendingSpace = lineHasContent;
+					state = CODE;
+				} else {
+					if(ch == '\n') { newline(); }
+					state = (ch == '*') ? BLOCK_COMMENT_STAR : BLOCK_COMMENT;
+				}
+				return true;
+			case QUOTE_1:
+				if(ch == '"') {
+					tokenBuilder.append(ch);
+					state = QUOTE_2;
+					return true;
+				}
+				state = STRING;
+				return false;
+			case QUOTE_2:
+				if(ch == '"') {
+					tokenBuilder.append(ch);
+					closingQuotes = 0;
+					state = TEXT_BLOCK;
+					return true;
+				}
+				//the empty string
+				sink.literal(literalNo());
+				state = CODE;
+				return false;
+			case STRING:
+			case CHAR:
+				final char quote = (state == STRING) ? '"' : '\'';
+				if(ch == '\n') {
+					//unterminated: the literal ends with the line
+					emitLiteral(state == STRING);
+					state = CODE;
+					return false;
+				}
+				
+				tokenBuilder.append(ch);
+				if(ch == '\\') {
+					state = (state == STRING) ? STRING_ESCAPE : CHAR_ESCAPE;
+				} else if(ch == quote) {
+					emitLiteral(state == STRING);
+					state = CODE;
+				}
+				return true;
+			case STRING_ESCAPE:
+			case CHAR_ESCAPE:
+				state = (state == STRING_ESCAPE) ? STRING : CHAR;
+				if(ch == '\n') { return false; }
+				tokenBuilder.append(ch);
+				return true;
+			case TEXT_BLOCK:
+				tokenBuilder.append(ch);
+				if(ch == '\\') {
+					closingQuotes = 0;
+					state = TEXT_BLOCK_ESCAPE;
+				} else if(ch != '"') {
+					closingQuotes = 0;
+				} else if(++closingQuotes == 3) {
+					emitLiteral(true);
+					state = CODE;
+				}
+				return true;
+			case TEXT_BLOCK_ESCAPE:
+				tokenBuilder.append(ch);
+				state = TEXT_BLOCK;
+				return true;
+			case METHOD_NAME:
+				if(ch != '\n' && ((ch < 128) ? ASCII_CLASSES[ch] : classOf(ch)) == SPACE) {
+					pendingSpace = true;
+					return true;
+				}
+				
+				if(ch == '(') {
+					sink.name(tokenBuilder.chars, tokenBuilder.length);
+				} else {
+					sink.identifier(outputId(methodCandidate));
+				}
+				state = CODE;
+				return false;
+			default:
+				throw new IllegalStateException("Unknown lexer state: " + state);
+			}
+		}
+		
+		/**
+		 * Between tokens
+		 * @param ch
+		 * @return true, ch is always used
+		 */
+		private boolean code(final char ch) {
+			final byte type = (ch < 128) ? ASCII_CLASSES[ch] : classOf(ch);
+			final boolean annotated = afterAt;
+			afterAt = false;
+			
+			switch(type) {
+			case SPACE:
+				pendingSpace = lineHasContent;
+				afterAt = annotated;
+				break;
+			case NEWLINE:
+				newline();
+				break;
+			case IDENT_START:
+				begin();
+				tokenBuilder.clear();
+				tokenBuilder.append(ch);
+				annotation = annotated;
+				state = IDENTIFIER;
+				break;
+			case DIGIT:
+				begin();
+				tokenBuilder.clear();
+				tokenBuilder.append(ch);
+				numberHex = false;
+				numberPrev = ch;
+				sink.character(ch);
+				state = NUMBER;
+				break;
+			case DOUBLE_QUOTE:
+				begin();
+				tokenBuilder.clear();
+				tokenBuilder.append(ch);
+				state = QUOTE_1;
+				break;
+			case SINGLE_QUOTE:
+				begin();
+				tokenBuilder.clear();
+				tokenBuilder.append(ch);
+				state = CHAR;
+				break;
+			case SLASH:
+				state = SLASH_SEEN;
+				break;
+			default:
+				begin();
+				sink.character(ch);
+				afterAt = (ch == '@');
+			}
+			return true;
+		}
+		
+		/**
+		 * Character class of a non-ASCII character
+		 * @param ch
+		 * @return
+		 */
+		private static byte classOf(final char ch) {
+			if(Character.isJavaIdentifierStart(ch)) { return IDENT_START; }
+			if(Character.isJavaIdentifierPart(ch)) { return IDENT_PART; }
+			return Character.isWhitespace(ch) ? SPACE : OTHER;
+		}
+		
+		/** @return true if the identifier being read is "non" */
+		private boolean isNon() {
+			return tokenBuilder.length == 3 && tokenBuilder.chars[0] == 'n' && tokenBuilder.chars[1] == 'o' && tokenBuilder.chars[2] == 'n';
+		}
+		
+		/**
+		 * Emits the separator, if any, due before a token
+		 */
+		private void begin() {
+			if(!lineHasContent) {
+				if(anyLine) { sink.character('\n'); }
+				lineHasContent = true;
+				anyLine = true;
+				lineOrigin = rawLine;
+				if(lineOrigins != null) { recordLine(); }
+			} else if(pendingSpace) {
+				sink.character(' ');
+			}
+			pendingSpace = false;
+		}
+		
+		private void newline() {
+			lineHasContent = false;
+			pendingSpace = false;
+		}
+		
+		/** @return true at the start of a line outside any comment, literal or unicode escape */
+		boolean atRegionBoundary() {
+			return state == CODE && escape.length == 0 && !lineHasContent;
+		}
+		
+		/**
+		 * Appends the output of a region copied from another file, as if it had been lexed here;
+		 * only valid at a region boundary, when producing text
+		 * @param regionOutput: the region's output lines, without a leading '\n'
+		 */
+		void splice(final String regionOutput) {
+			if(regionOutput.isEmpty()) { return; }
+			
+			if(anyLine) { output.append('\n'); }
+			output.append(regionOutput);
+			anyLine = true;
+		}
+		
+		/**
+		 * Emits the identifier in tokenBuilder as a keyword, a kept name or a renamed identifier
+		 * @param methodCheck: whether a method name rule may wait for the next character
+		 */
+		private void emitIdentifier(final boolean methodCheck) {
+			final int identifierNo = identifierNo();
+			final byte rules = symbolRules[identifierNo];
+			
+			if(keywordIds[identifierNo] != -1) {
+				sink.keyword(keywordIds[identifierNo], tokenBuilder.chars, tokenBuilder.length);
+			} else if((rules & AnonymizationPolicy.KEEP) != 0 || (annotation && policy.keepAnnotations)) {
+				sink.name(tokenBuilder.chars, tokenBuilder.length);
+			} else if((rules & AnonymizationPolicy.METHOD) != 0 && methodCheck) {
+				methodCandidate = identifierNo;
+				state = METHOD_NAME;
+			} else {
+				sink.identifier(outputId(identifierNo));
+			}
+		}
+		
+		/**
+		 * 
+		 * @param identifierNo
+		 * @return what the identifier is called in the output
+		 */
+		private int outputId(final int identifierNo) {
+			if(hashedIds != null) { return hashedIds[identifierNo]; }
+			return (scope == null) ? identifierNo : scopeTokenIds[identifierNo];
+		}
+		
+		/**
+		 * 
+		 * @param string: a string literal or text block rather than a char literal
+		 */
+		private void emitLiteral(final boolean string) {
+			if(string) {
+				sink.literal(literalNo());
+			} else {
+				sink.charLiteral(literalNo());
+			}
+		}
+		
+		/**
+		 * Moves everything produced so far to a Writer, leaving the output empty
+		 * @param out
+		 * @param buffer: scratch space
+		 * @throws IOException
+		 */
+		void drainTo(final Writer out, final char[] buffer) throws IOException {
+			for(int start = 0; start < output.length(); start += buffer.length) {
+				final int end = Math.min(output.length(), start+buffer.length);
+				output.getChars(start, end, buffer, 0);
+				out.write(buffer, 0, end-start);
+			}
+			output.setLength(0);
+		}
+		
+		/**
+		 * Encodes and writes everything produced so far, leaving the output empty
+		 * @param out
+		 * @param encoder
+		 * @param chars: scratch space; may hold the first half of a surrogate pair from the last call
+		 * @param bytes: empty scratch space
+		 * @throws IOException
+		 */
+		void encodeTo(final WritableByteChannel out, final CharsetEncoder encoder,
+				final CharBuffer chars, final ByteBuffer bytes) throws IOException {
+			int start = 0;
+			while(start < output.length()) {
+				final int end = Math.min(output.length(), start+chars.remaining());
+				output.getChars(start, end, chars.array(), chars.position());
+				chars.position(chars.position()+end-start);
+				start = end;
+				chars.flip();
+				
+				CoderResult result;
+				do {
+					result = encoder.encode(chars, bytes, false);
+					if(result.isError()) { result.throwException(); }
+					if(result.isOverflow()) { writeFully(out, bytes); }
+				} while(result.isOverflow());
+				
+				//an unpaired surrogate waits for the rest of its pair
+				chars.compact();
+			}
+			writeFully(out, bytes);
+			output.setLength(0);
+		}
+		
+		/**
+		 * Starts recording the source line of each output line
+		 */
+		void recordLines() {
+			lineOrigins = new int[64];
+		}
+		
+		private void recordLine() {
+			if(outputLines == lineOrigins.length) { lineOrigins = Arrays.copyOf(lineOrigins, outputLines*2); }
+			lineOrigins[outputLines++] = lineOrigin;
+		}
+		
+		/**
+		 * Ends whatever token the input stopped in
+		 */
+		void finish() {
+			flushEscape();
+			
+			switch(state) {
+			case QUOTE_1:
+			case QUOTE_2:
+			case STRING:
+			case STRING_ESCAPE:
+			case TEXT_BLOCK:
+			case TEXT_BLOCK_ESCAPE:
+				emitLiteral(true);
+				break;
+			case CHAR:
+			case CHAR_ESCAPE:
+				emitLiteral(false);
+				break;
+			case LINE_COMMENT:
+			case BLOCK_COMMENT:
+			case BLOCK_COMMENT_STAR:
+				break;
+			default:
+				//a space ends any identifier, number or '/'
+				lex(' ');
+			}
+			
+			if(state == METHOD_NAME) {
+				//nothing follows, so not a method
+				sink.identifier(outputId(methodCandidate));
+			}
+			state = CODE;
+		}
+		
+		/** @return the number of the identifier currently in tokenBuilder */
+		private int identifierNo() {
+			final int known = tokens.size();
+			final int identifierNo = tokens.idOf(tokenBuilder.chars, 0, tokenBuilder.length);
+			
+			if(identifierNo == known) {
+				if(identifierNo == keywordIds.length) {
+					keywordIds = Arrays.copyOf(keywordIds, keywordIds.length*2);
+					symbolRules = Arrays.copyOf(symbolRules, keywordIds.length);
+					if(hashedIds != null) { hashedIds = Arrays.copyOf(hashedIds, keywordIds.length); }
+					if(scope != null) { scopeTokenIds = Arrays.copyOf(scopeTokenIds, keywordIds.length); }
+				}
+				keywordIds[identifierNo] = owner.matcher.indexOf(tokenBuilder.chars, 0, tokenBuilder.length);
+				
+				if(keywordIds[identifierNo] == -1) {
+					symbolRules[identifierNo] = policy.rules(tokenBuilder.chars, tokenBuilder.length);
+					
+					if(hashedIds != null) {
+						hashedIds[identifierNo] = policy.hasher().hash(tokenBuilder.chars, tokenBuilder.length);
+					} else if(scope != null) {
+						scopeTokenIds[identifierNo] = scope.identifiers.idOf(tokens.name(identifierNo));
+					}
+				}
+			}
+			
+			return identifierNo;
+		}
+		
+		/** @return the number of the literal currently in tokenBuilder */
+		private int literalNo() {
+			final int known = literals.size();
+			final int literalNo = literals.idOf(tokenBuilder.chars, 0, tokenBuilder.length);
+			
+			if(hashedLiteralIds != null) {
+				if(literalNo == known) {
+					if(literalNo == hashedLiteralIds.length) {
+						hashedLiteralIds = Arrays.copyOf(hashedLiteralIds, hashedLiteralIds.length*2);
+					}
+					hashedLiteralIds[literalNo] = policy.hasher().hashLiteral(tokenBuilder.chars, tokenBuilder.length);
+				}
+				return hashedLiteralIds[literalNo];
+			}
+			if(scope == null) { return literalNo; }
+			
+			if(literalNo == known) {
+				if(literalNo == scopeLiteralIds.length) {
+					scopeLiteralIds = Arrays.copyOf(scopeLiteralIds, scopeLiteralIds.length*2);
+				}
+				scopeLiteralIds[literalNo] = scope.literals.idOf(literals.name(literalNo));
+			}
+			return scopeLiteralIds[literalNo];
+		}
+		
+		/**
+		 * Writes the ids this file's identifiers, then literals, got from the scope,
+		 * each group as a count followed by id and name pairs in order of first use
+		 * @param out
+		 * @throws IOException
+		 */
+		void writeRegistered(final DataOutputStream out) throws IOException {
+			//hashed identifiers and literals are not numbered by the scope
+			final int identifiers = (hashedIds == null) ? tokens.size() : 0;
+			int count = 0;
+			for(int identifierNo = 0; identifierNo < identifiers; ++identifierNo) {
+				if(keywordIds[identifierNo] == -1) { ++count; }
+			}
+			
+			out.writeInt(count);
+			for(int identifierNo = 0; identifierNo < identifiers; ++identifierNo) {
+				if(keywordIds[identifierNo] != -1) { continue; }
+				out.writeInt(scopeTokenIds[identifierNo]);
+				SymbolDictionary.writeName(out, tokens.name(identifierNo));
+			}
+			
+			final int literalCount = (hashedLiteralIds == null) ? literals.size() : 0;
+			out.writeInt(literalCount);
+			for(int literalNo = 0; literalNo < literalCount; ++literalNo) {
+				out.writeInt(scopeLiteralIds[literalNo]);
+				SymbolDictionary.writeName(out, literals.name(literalNo));
+			}
+		}
+	}
+	
+	/**
+	 * Receives the measurements of each file of a corpus run
+	 */
+	public interface MetricsSink {
+		/**
+		 * 
+		 * @param source
+		 * @param metrics
+		 */
+		void fileAnonymized(Path source, FileMetrics metrics);
+	}
+	
+	/**
+	 * Measurements of one anonymized file
+	 * 
+	 * Comment removal, spacing and renaming happen in one fused pass, so their
+	 * time is reported together as the scan phase, next to the time spent
+	 * reading input and writing output.
+	 */
+	public static final class FileMetrics {
+		static final int READ = 0;
+		static final int SCAN = 1;
+		static final int WRITE = 2;
+		
+		public long charsIn;
+		public long charsOut;
+		//occurrences
+		public int identifiers;
+		public int keywords;
+		public int literals;
+		public int keptNames;
+		//symbol table sizes: distinct identifiers (keywords included) and literals
+		public int symbols;
+		public int distinctLiterals;
+		public long readNanos;
+		public long scanNanos;
+		public long writeNanos;
+		//lines copied from a near-duplicate instead of lexed
+		public int reusedLines;
+		//output came from the cache, so nothing but this flag is filled in
+		public boolean cached;
+		
+		/**
+		 * Charges the time since start to a phase
+		 * @param phase
+		 * @param start
+		 * @return now
+		 */
+		long lap(final int phase, final long start) {
+			final long now = System.nanoTime();
+			switch(phase) {
+			case READ:	readNanos += now-start; break;
+			case SCAN:	scanNanos += now-start; break;
+			default:	writeNanos += now-start;
+			}
+			return now;
+		}
+		
+		@Override
+		public String toString() {
+			if(cached) { return "cached"; }
+			return "chars "+charsIn+" -> "+charsOut+", identifiers "+identifiers+", keywords "+keywords
+					+", literals "+literals+", kept "+keptNames+", symbols "+symbols+"/"+distinctLiterals
+					+", reused lines "+reusedLines
+					+", read "+readNanos/1000+" us, scan "+scanNanos/1000+" us, write "+writeNanos/1000+" us";
+		}
+	}
+	
+	/**
+	 * Aggregates the {@link FileMetrics} of a corpus run into histograms
+	 */
+	public static class CorpusMetrics implements MetricsSink {
+		public final Histogram charsIn = new Histogram();
+		public final Histogram charsOut = new Histogram();
+		public final Histogram identifiers = new Histogram();
+		public final Histogram keywords = new Histogram();
+		public final Histogram literals = new Histogram();
+		public final Histogram symbols = new Histogram();
+		public final Histogram reusedLines = new Histogram();
+		public final Histogram readNanos = new Histogram();
+		public final Histogram scanNanos = new Histogram();
+		public final Histogram writeNanos = new Histogram();
+		private final AtomicLong cachedFiles = new AtomicLong();
+		
+		@Override
+		public void fileAnonymized(final Path source, final FileMetrics metrics) {
+			if(metrics.cached) {
+				cachedFiles.incrementAndGet();
+				return;
+			}
+			
+			charsIn.record(metrics.charsIn);
+			charsOut.record(metrics.charsOut);
+			identifiers.record(metrics.identifiers);
+			keywords.record(metrics.keywords);
+			literals.record(metrics.literals);
+			symbols.record(metrics.symbols);
+			reusedLines.record(metrics.reusedLines);
+			readNanos.record(metrics.readNanos);
+			scanNanos.record(metrics.scanNanos);
+			writeNanos.record(metrics.writeNanos);
+		}
+		
+		public long cachedFiles() { return cachedFiles.get(); }
+		
+		@Override
+		public String toString() {
+			return "files: "+charsIn.count()+" anonymized, "+cachedFiles()+" cached\n"
+					+"chars in:    "+charsIn+"\n"
+					+"chars out:   "+charsOut+"\n"
+					+"identifiers: "+identifiers+"\n"
+					+"keywords:    "+keywords+"\n"
+					+"literals:    "+literals+"\n"
+					+"symbols:     "+symbols+"\n"
+					+"reused:      "+reusedLines+"\n"
+					+"read ns:     "+readNanos+"\n"
+					+"scan ns:     "+scanNanos+"\n"
+					+"write ns:    "+writeNanos;
+		}
+	}
+	
+	/**
+	 * Concurrent histogram of non-negative longs with HDR-style log-linear buckets:
+	 * exact below {@value #LINEAR}, then {@value #SUB_BUCKETS} buckets for every
+	 * power of two, so any recorded value is known to within about 1.6%.
+	 * Recording is a few shifts and one atomic increment, without allocating.
+	 */
+	public static final class Histogram {
+		private static final int SUB_BITS = 6;
+		private static final int SUB_BUCKETS = 1 << SUB_BITS;
+		private static final int LINEAR = SUB_BUCKETS*2;
+		private static final int BUCKETS = (64-SUB_BITS)*SUB_BUCKETS;
+		
+		private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+		private final LongAdder count = new LongAdder();
+		private final DoubleAdder sum = new DoubleAdder();
+		private final AtomicLong max = new AtomicLong();
+		
+		/**
+		 * 
+		 * @param value: negative values count as 0
+		 */
+		public void record(final long value) {
+			final long clamped = Math.max(0, value);
+			counts.incrementAndGet(bucket(clamped));
+			count.increment();
+			sum.add(clamped);
+			
+			long known = max.get();
+			while(clamped > known && !max.compareAndSet(known, clamped)) {
+				known = max.get();
+			}
+		}
+		
+		public long count() { return count.sum(); }
+		public long max() { return max.get(); }
+		public double mean() {
+			final long count = count();
+			return (count == 0) ? 0 : sum.sum() / count;
+		}
+		
+		/**
+		 * 
+		 * @param percent: 0 to 100
+		 * @return the smallest bucket value at or below which percent of the values fall
+		 */
+		public long percentile(final double percent) {
+			final long count = count();
+			if(count == 0) { return 0; }
+			
+			final long wanted = Math.max(1, (long) Math.ceil(count * percent / 100));
+			long seen = 0;
+			for(int bucket = 0; bucket < BUCKETS; ++bucket) {
+				seen += counts.get(bucket);
+				if(seen >= wanted) { return Math.min(max(), highest(bucket)); }
+			}
+			return max();
+		}
+		
+		private static int bucket(final long value) {
+			if(value < LINEAR) { return (int) value; }
+			final int shift = (63-Long.numberOfLeadingZeros(value)) - SUB_BITS;
+			return (shift+1)*SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+		}
+		
+		/** @return the largest value that falls in a bucket */
+		private static long highest(final int bucket) {
+			if(bucket < LINEAR) { return bucket; }
+			final int shift = bucket/SUB_BUCKETS - 1;
+			final long low = (long) (bucket%SUB_BUCKETS + SUB_BUCKETS) << shift;
+			return low + (1L << shift) - 1;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("mean %.1f, p50 %d, p90 %d, p99 %d, max %d",
+					mean(), percentile(50), percentile(90), percentile(99), max());
+		}
+	}
+	
+	/**
+	 * Receives the anonymized program from a {@link Lexer}, one token at a time
+	 */
+	interface LexerSink {
+		/** @param id: number of a string literal */
+		void literal(int id);
+		/** @param id: number of a char literal */
+		void charLiteral(int id);
+		/**
+		 * 
+		 * @param index: position of the keyword in the {@link KeywordMatcher}
+		 * @param text
+		 * @param length
+		 */
+		void keyword(int index, char[] text, int length);
+		/** @param id: number of an identifier */
+		void identifier(int id);
+		/**
+		 * An identifier the policy keeps as it is
+		 * @param text
+		 * @param length
+		 */
+		void name(char[] text, int length);
+		/** @param ch: any other character, including spaces and '\n' */
+		void character(char ch);
+	}
+	
+	/**
+	 * Writes the anonymized program as text, the way {@link #anonamize(String[])} returns it
+	 */
+	private static final class TextSink implements LexerSink {
+		private final StringBuilder output;
+		
+		TextSink(final StringBuilder output) { this.output = output; }
+		
+		public void literal(final int id) { output.append("\"literal$").append(id).append('"'); }
+		public void charLiteral(final int id) { output.append("'char-literal$").append(id).append('\''); }
+		public void keyword(final int index, final char[] text, final int length) { output.append(text, 0, length); }
+		public void identifier(final int id) { output.append("ident$").append(id); }
+		public void name(final char[] text, final int length) { output.append(text, 0, length); }
+		public void character(final char ch) { output.append(ch); }
+	}
+	
+	/**
+	 * Counts what passes through to another sink, for {@link FileMetrics}
+	 */
+	private static final class CountingSink implements LexerSink {
+		private final LexerSink target;
+		//changed when a reused lexer starts a new file
+		FileMetrics metrics;
+		
+		CountingSink(final LexerSink target, final FileMetrics metrics) {
+			this.target = target;
+			this.metrics = metrics;
+		}
+		
+		public void literal(final int id) { ++metrics.literals; target.literal(id); }
+		public void charLiteral(final int id) { ++metrics.literals; target.charLiteral(id); }
+		public void keyword(final int index, final char[] text, final int length) { ++metrics.keywords; target.keyword(index, text, length); }
+		public void identifier(final int id) { ++metrics.identifiers; target.identifier(id); }
+		public void name(final char[] text, final int length) { ++metrics.keptNames; target.name(text, length); }
+		public void character(final char ch) { target.character(ch); }
+	}
+	
+	/**
+	 * The anonymized program as a stream of int tokens, for feeding a model without re-parsing text
+	 * 
+	 * Each token packs its kind into the top {@value #KIND_BITS} bits and a value into the rest:
+	 * KEYWORD: position of the keyword in the anonymizer's {@link KeywordMatcher}
+	 * IDENTIFIER: N of ident$N
+	 * LITERAL: N of "literal$N"
+	 * CHAR_LITERAL: N of 'char-literal$N'
+	 * CHARACTER: any other character (operators, brackets, digits...)
+	 * NEWLINE: end of a line (value is 0)
+	 * NAME: an identifier kept by the {@link AnonymizationPolicy}; see {@link #name(int)}
+	 * Spaces between tokens are dropped.
+	 */
+	public static final class TokenStream implements LexerSink {
+		public static final int KEYWORD = 0;
+		public static final int IDENTIFIER = 1;
+		public static final int LITERAL = 2;
+		public static final int CHAR_LITERAL = 3;
+		public static final int CHARACTER = 4;
+		public static final int NEWLINE = 5;
+		public static final int NAME = 6;
+		
+		public static final int KIND_BITS = 4;
+		private static final int VALUE_BITS = 32-KIND_BITS;
+		private static final int VALUE_MASK = (1 << VALUE_BITS)-1;
+		
+		private int[] tokens = new int[256];
+		private int size = 0;
+		//names kept by the policy, numbered by first appearance in this stream
+		private final SymbolTable names = new SymbolTable();
+		
+		/** @return the kind of a token */
+		public static int kind(final int token) { return token >>> VALUE_BITS; }
+		/** @return the value of a token */
+		public static int value(final int token) { return token & VALUE_MASK; }
+		
+		public int size() { return size; }
+		public int get(final int index) { return tokens[index]; }
+		public void clear() { size = 0; }
+		
+		/** @return a copy of the tokens */
+		public int[] toArray() { return Arrays.copyOf(tokens, size); }
+		
+		/**
+		 * Puts the tokens into a buffer as ints, in the buffer's byte order
+		 * @param buffer: needs 4*size() bytes remaining
+		 */
+		public void writeTo(final ByteBuffer buffer) {
+			buffer.asIntBuffer().put(tokens, 0, size);
+			buffer.position(buffer.position()+size*4);
+		}
+		
+		public void literal(final int id) { add(LITERAL, id); }
+		public void charLiteral(final int id) { add(CHAR_LITERAL, id); }
+		public void keyword(final int index, final char[] text, final int length) { add(KEYWORD, index); }
+		public void identifier(final int id) { add(IDENTIFIER, id); }
+		public void name(final char[] text, final int length) { add(NAME, names.idOf(text, 0, length)); }
+		
+		/**
+		 * 
+		 * @param value: of a NAME token
+		 * @return the kept identifier
+		 */
+		public String name(final int value) { return names.name(value); }
+		
+		public void character(final char ch) {
+			if(ch == '\n') {
+				add(NEWLINE, 0);
+			} else if(ch != ' ') {
+				add(CHARACTER, ch);
+			}
+		}
+		
+		private void add(final int kind, final int value) {
+			if(value > VALUE_MASK) { throw new IllegalStateException("Token value does not fit: " + value); }
+			if(size == tokens.length) { tokens = Arrays.copyOf(tokens, size*2); }
+			tokens[size++] = (kind << VALUE_BITS) | value;
+		}
+	}
+	
+	/**
+	 * Precompiled keyword set
+	 * 
+	 * Keywords are bucketed by length and first character, so classifying an
+	 * identifier compares it against at most a handful of candidates (one for
+	 * every built-in set) instead of scanning the whole array.
+	 */
+	public static final class KeywordMatcher {
+		//buckets are indexed by length*BUCKET_WIDTH + (first character % BUCKET_WIDTH)
+		private static final int BUCKET_WIDTH = 64;
+		
+		private final char[][] words;
+		private final int[][] buckets;
+		private final int maxLength;
+		
+		/**
+		 * 
+		 * @param keywordSets: keyword arrays, numbered one after the other
+		 */
+		public KeywordMatcher(final String[]... keywordSets) {
+			int count = 0;
+			for(final String[] keywords: keywordSets) {
+				Objects.requireNonNull(keywords);
+				count += keywords.length;
+			}
+			words = new char[count][];
+			
+			int longest = 0;
+			int next = 0;
+			for(final String[] keywords: keywordSets) {
+				for(final String keyword: keywords) {
+					words[next] = keyword.toCharArray();
+					longest = Math.max(longest, words[next].length);
+					++next;
+				}
+			}
+			maxLength = longest;
+			
+			buckets = new int[(maxLength+1)*BUCKET_WIDTH][];
+			for(int index = 0; index < words.length; ++index) {
+				if(words[index].length == 0) { continue; }
+				
+				final int bucket = bucket(words[index], 0, words[index].length);
+				if(buckets[bucket] == null) {
+					buckets[bucket] = new int[] { index };
+				} else {
+					buckets[bucket] = Arrays.copyOf(buckets[bucket], buckets[bucket].length+1);
+					buckets[bucket][buckets[bucket].length-1] = index;
+				}
+			}
+		}
+		
+		/**
+		 * 
+		 * @param text
+		 * @param offset
+		 * @param length
+		 * @return the position of the slice in the keyword array(s), or -1 if it is not a keyword
+		 */
+		public int indexOf(final char[] text, final int offset, final int length) {
+			if(length == 0 || length > maxLength) { return -1; }
+			
+			final int[] candidates = buckets[bucket(text, offset, length)];
+			if(candidates == null) { return -1; }
+			
+			candidates:
+			for(final int index: candidates) {
+				final char[] word = words[index];
+				if(word.length != length) { continue; }
+				for(int pos = 0; pos < length; ++pos) {
+					if(word[pos] != text[offset+pos]) { continue candidates; }
+				}
+				return index;
+			}
+			return -1;
+		}
+		
+		/**
+		 * 
+		 * @param index: as returned by {@link #indexOf(char[], int, int)}
+		 * @return the keyword
+		 */
+		public String keyword(final int index) { return new String(words[index]); }
+		
+		/** @return the number of keywords */
+		public int size() { return words.length; }
+		
+		/**
+		 * 
+		 * @param word
+		 * @return true if word is a keyword
+		 */
+		public boolean contains(final String word) {
+			return indexOf(word.toCharArray(), 0, word.length()) != -1;
+		}
+		
+		/**
+		 * 
+		 * @param word
+		 * @return true if word is a keyword, ignoring case
+		 */
+		public boolean containsIgnoreCase(final String word) {
+			for(final char[] keyword: words) {
+				if(word.equalsIgnoreCase(new String(keyword))) { return true; }
+			}
+			return false;
+		}
+		
+		/**
+		 * Adds the keywords, in order, to a digest
+		 * @param digest
+		 */
+		void fingerprint(final MessageDigest digest) {
+			for(final char[] word: words) {
+				digest.update(new String(word).getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) 0);
+			}
+		}
+		
+		private static int bucket(final char[] text, final int offset, final int length) {
+			return length*BUCKET_WIDTH + (text[offset] % BUCKET_WIDTH);
+		}
+	}
+	
+	/**
+	 * In-memory WritableByteChannel, so channel output can be kept as a buffer
+	 */
+	static final class ByteArrayChannel implements WritableByteChannel {
+		private byte[] bytes;
+		private int length = 0;
+		
+		ByteArrayChannel(final int capacity) { bytes = new byte[Math.max(16, capacity)]; }
+		
+		@Override
+		public int write(final ByteBuffer source) {
+			final int count = source.remaining();
+			ensure(count);
+			source.get(bytes, length, count);
+			length += count;
+			return count;
+		}
+		
+		void write(final byte value) {
+			ensure(1);
+			bytes[length++] = value;
+		}
+		
+		private void ensure(final int count) {
+			if(length+count > bytes.length) { bytes = Arrays.copyOf(bytes, Math.max(bytes.length*2, length+count)); }
+		}
+		
+		/** @return a view of what was written, without copying */
+		ByteBuffer toByteBuffer() { return ByteBuffer.wrap(bytes, 0, length); }
+		byte[] toByteArray() { return Arrays.copyOf(bytes, length); }
+		
+		@Override
+		public boolean isOpen() { return true; }
+		@Override
+		public void close() { }
+	}
+	
+	/**
+	 * Growable run of characters, reused instead of a StringBuilder so
+	 * the Lexer can hand its contents to a {@link SymbolTable} without copying
+	 */
+	static final class CharRun {
+		char[] chars = new char[64];
+		int length = 0;
+		
+		void append(final char ch) {
+			if(length == chars.length) { chars = Arrays.copyOf(chars, length*2); }
+			chars[length++] = ch;
+		}
+		
+		void append(final CharRun other, final int from, final int to) {
+			final int count = to-from;
+			if(count <= 0) { return; }
+			if(length+count > chars.length) { chars = Arrays.copyOf(chars, Math.max(length+count, chars.length*2)); }
+			System.arraycopy(other.chars, from, chars, length, count);
+			length += count;
+		}
+		
+		void clear() { length = 0; }
+		
+		@Override
+		public String toString() { return new String(chars, 0, length); }
+	}
+	
+	/**
+	 * Numbers distinct character sequences in the order they are first seen
+	 * 
+	 * Open addressing table keyed directly on char[] slices: a lookup of a known
+	 * symbol does not allocate.  Every symbol's characters are kept in one shared
+	 * pool, and the slots hold ids rather than references.
+	 */
+	static final class SymbolTable {
+		//id+1 for each slot, 0 for an empty slot
+		private int[] slots = new int[64];
+		
+		private char[] pool = new char[1024];
+		private int poolLength = 0;
+		
+		private int[] offsets = new int[32];
+		private int[] lengths = new int[32];
+		private int[] hashes  = new int[32];
+		private int size = 0;
+		
+		/** @return the number of distinct symbols seen */
+		int size() { return size; }
+		
+		/**
+		 * Forgets every symbol, keeping the space they took
+		 */
+		void clear() {
+			Arrays.fill(slots, 0);
+			poolLength = 0;
+			size = 0;
+		}
+		
+		/**
+		 * Finds the id of a symbol, giving it the next free id if it is new
+		 * @param text
+		 * @param offset
+		 * @param length
+		 * @return the symbol's id
+		 */
+		int idOf(final char[] text, final int offset, final int length) {
+			final int hash = hash(text, offset, length);
+			final int mask = slots.length-1;
+			
+			int slot = hash & mask;
+			for(int entry = slots[slot]; entry != 0; entry = slots[slot]) {
+				final int id = entry-1;
+				if(hashes[id] == hash && matches(id, text, offset, length)) {
+					return id;
+				}
+				slot = (slot+1) & mask;
+			}
+			
+			final int id = add(text, offset, length, hash);
+			slots[slot] = id+1;
+			
+			//keep the load factor at or below 1/2
+			if(size*2 > slots.length) { rehash(); }
+			return id;
+		}
+		
+		/**
+		 * 
+		 * @param id
+		 * @return the characters of the symbol with a given id
+		 */
+		String name(final int id) {
+			return new String(pool, offsets[id], lengths[id]);
+		}
+		
+		private boolean matches(final int id, final char[] text, final int offset, final int length) {
+			if(lengths[id] != length) { return false; }
+			final int start = offsets[id];
+			for(int index = 0; index < length; ++index) {
+				if(pool[start+index] != text[offset+index]) { return false; }
+			}
+			return true;
+		}
+		
+		private int add(final char[] text, final int offset, final int length, final int hash) {
+			if(size == offsets.length) {
+				offsets = Arrays.copyOf(offsets, size*2);
+				lengths = Arrays.copyOf(lengths, size*2);
+				hashes  = Arrays.copyOf(hashes,  size*2);
+			}
+			if(poolLength+length > pool.length) {
+				pool = Arrays.copyOf(pool, Math.max(poolLength+length, pool.length*2));
+			}
+			
+			System.arraycopy(text, offset, pool, poolLength, length);
+			offsets[size] = poolLength;
+			lengths[size] = length;
+			hashes[size]  = hash;
+			poolLength += length;
+			return size++;
+		}
+		
+		private void rehash() {
+			slots = new int[slots.length*2];
+			final int mask = slots.length-1;
+			
+			for(int id = 0; id < size; ++id) {
+				int slot = hashes[id] & mask;
+				while(slots[slot] != 0) { slot = (slot+1) & mask; }
+				slots[slot] = id+1;
+			}
+		}
+		
+		/**
+		 * String.hashCode() over a slice, with the high bits folded in
+		 * since the table only uses the low bits
+		 * @param text
+		 * @param offset
+		 * @param length
+		 * @return
+		 */
+		static int hash(final char[] text, final int offset, final int length) {
+			int hash = 0;
+			final int end = offset+length;
+			for(int index = offset; index < end; ++index) {
+				hash = 31*hash + text[index];
+			}
+			return hash ^ (hash >>> 16);
+		}
+	}
+	
+	/**
+	 * 
+	 * @param code
+	 * @return
+	 */
+	protected static String[] fixSpacing(final String[] code) {
+		for(int index = 0; index < code.length; ++index) {
+			code[index] = code[index].replaceAll("\\s+", " ").trim();
+		}
+		
+		return code;
+	}
+	
+	/**
+	 * Removes Java comments
+	 * 
+	 * @param text
+	 * @return
+	 */
+	public static String removeJavaComments(final String text) {
+		final char[] chars = text.toCharArray();
+		return new String(chars, 0, removeJavaComments(chars, chars.length, chars, null));
+	}
+	
+	/**
+	 * Removes Java comments from text[0, length) into a caller-supplied buffer, without allocating.
+	 * The output is never longer than the input, so out may be text itself to filter in place.
+	 * 
+	 * @param text
+	 * @param length: number of chars of text to read
+	 * @param out: receives the filtered text; at least length long
+	 * @param offsets: if not null, offsets[i] is set to the position in text of out[i]; at least length long
+	 * @return number of chars written to out
+	 */
+	public static int removeJavaComments(final char[] text, final int length, final char[] out, final int[] offsets) {
+		boolean quoted = false;
+		boolean commented = false;
+		boolean line_commented = false;
+		
+		int written = 0;
+		//the source char before pos: out[pos-1] may already be overwritten when filtering in place
+		char prev = 0;
+		
+		for(int pos = 0; pos < length; prev = text[pos++]) {
+			final char ch = text[pos];
+			boolean keep = false;
+			
+			switch(ch) {
+			case '"':
+				if(!(commented || line_commented)) { 
+					//ignore escaped quotes
+					if(prev != '\\') {
+						quoted = !quoted;
+					}
+					keep = true;
+				}
+				break;
+			case '/':
+				if(quoted) {
+					keep = true;
+				} else if(pos < length-1 && text[pos+1] == '/') {
+					line_commented = true;
+				} else if(pos < length-1 && !line_commented && text[pos+1] == '*') {
+					commented = true;
+				} if(pos > 0 && commented && !line_commented && prev == '*') {
+					commented = false;
+				}
+				break;
+			case '\n':
+				line_commented = false;
+				keep = true;
+				break;
+			default:
+				keep = !(commented || line_commented);
+			}
+			
+			if(keep) {
+				if(offsets != null) { offsets[written] = pos; }
+				out[written++] = ch;
+			}
 		}
 		
-		return builder.toString();
+		return written;
 	}
 	
 	/**
@@ -0,0 +1,165 @@
+package anonymize;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH throughput benchmarks for the JavaAnonymizerStandalone hot paths over the inputs in the repository:
+ * inputs=cramfile runs every project's cramfile.txt, inputs=java every sample .java file
+ *
+ * Each benchmark processes the whole input set once per op; the "megabytes" counter
+ * is the throughput in MB/s (10^6 bytes of source as stored on disk).
+ * Run with the GC profiler for allocation per op, from the repository root:
+ * java -jar target/benchmarks.jar JavaAnonymizerThroughputBenchmark -prof gc
+ *
+ * isStringQuote() no longer exists on its own: quote handling is part of the
+ * lexer's scan stage, so it is measured by anonamize and anonymizeStream.
+ *
+ * @author Benjamin Strauss
+ *
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JavaAnonymizerThroughputBenchmark {
+	//directory holding the project folders
+	@Param(".")
+	public String corpus;
+	
+	@Param({"cramfile", "java"})
+	public String inputs;
+	
+	private final JavaAnonymizerStandalone anonymizer = new JavaAnonymizerStandalone();
+	
+	private String[][] lines;
+	private String[] texts;
+	private double megabytes;
+	//reused by removeJavaCommentsInPlace
+	private char[] buffer;
+	
+	/**
+	 * Counts the megabytes processed; JMH reports it per second
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Throughput {
+		public double megabytes;
+		
+		@Setup(Level.Iteration)
+		public void reset() { megabytes = 0; }
+	}
+	
+	@Setup
+	public void loadInputs() throws IOException {
+		final List<Path> files = new ArrayList<Path>();
+		try (final DirectoryStream<Path> projects = Files.newDirectoryStream(Paths.get(corpus))) {
+			for(final Path project: projects) {
+				if(!Files.isDirectory(project)) { continue; }
+				
+				if(inputs.equals("cramfile")) {
+					final Path cramfile = project.resolve("cramfile.txt");
+					if(Files.isRegularFile(cramfile)) { files.add(cramfile); }
+				} else {
+					try (final DirectoryStream<Path> sources = Files.newDirectoryStream(project, "*.java")) {
+						for(final Path source: sources) { files.add(source); }
+					}
+				}
+			}
+		}
+		
+		lines = new String[files.size()][];
+		texts = new String[files.size()];
+		long bytes = 0;
+		int longest = 0;
+		
+		for(int index = 0; index < files.size(); ++index) {
+			texts[index] = Files.readString(files.get(index));
+			lines[index] = texts[index].split("\n");
+			bytes += Files.size(files.get(index));
+			longest = Math.max(longest, texts[index].length());
+		}
+		
+		megabytes = bytes / 1e6;
+		buffer = new char[longest];
+	}
+	
+	@Benchmark
+	public void anonamize(final Throughput throughput, final Blackhole blackhole) {
+		for(final String[] code: lines) {
+			blackhole.consume(anonymizer.anonamize(code));
+		}
+		throughput.megabytes += megabytes;
+	}
+	
+	@Benchmark
+	public void anonymizeStream(final Throughput throughput, final Blackhole blackhole) throws IOException {
+		for(final String text: texts) {
+			final StringWriter out = new StringWriter(text.length());
+			anonymizer.anonymize(new StringReader(text), out);
+			blackhole.consume(out);
+		}
+		throughput.megabytes += megabytes;
+	}
+	
+	@Benchmark
+	public void removeJavaComments(final Throughput throughput, final Blackhole blackhole) {
+		for(final String text: texts) {
+			blackhole.consume(JavaAnonymizerStandalone.removeJavaComments(text));
+		}
+		throughput.megabytes += megabytes;
+	}
+	
+	/**
+	 * Same as removeJavaComments, filtering into one reused buffer
+	 * @param throughput
+	 * @param blackhole
+	 */
+	@Benchmark
+	public void removeJavaCommentsInPlace(final Throughput throughput, final Blackhole blackhole) {
+		for(final String text: texts) {
+			text.getChars(0, text.length(), buffer, 0);
+			blackhole.consume(JavaAnonymizerStandalone.removeJavaComments(buffer, text.length(), buffer, null));
+		}
+		throughput.megabytes += megabytes;
+	}
+	
+	/**
+	 * fixSpacing() rewrites its argument, so this includes copying each file's line array
+	 * @param throughput
+	 * @param blackhole
+	 */
+	@Benchmark
+	public void fixSpacing(final Throughput throughput, final Blackhole blackhole) {
+		for(final String[] code: lines) {
+			blackhole.consume(JavaAnonymizerStandalone.fixSpacing(code.clone()));
+		}
+		throughput.megabytes += megabytes;
+	}
+}
@@ -1,25 +1,35 @@
 package patternworks.pattern.aiClassify;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.io.Serializable;
+import java.io.Writer;
 import java.net.URI;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * Main for parsing LLM Output
@@ -29,6 +39,10 @@ import java.util.function.Function;
 
 public class LLMOutputParserStandalone {
 	private static final boolean ALLOW_HYBRID = false;
+	//parse the LLM output files on the common ForkJoinPool
+	private static final boolean PARALLEL_PARSING = true;
+	//group classifications into FileSummaries on the common ForkJoinPool
+	private static final boolean PARALLEL_GROUPING = false;
 	
 	private static final double CUTOFF = 0.9;
 	
@@ -37,6 +51,7 @@ public class LLMOutputParserStandalone {
 	private static final String HEADER3 = "Project,Filename,anon-improved,anon-improved-pairwise";
 	private static final String BASE_DIR = "research/llm-pattern-detection";
 	private static final String ANALYSIS = "analysis";
+	private static final String ALIAS_FILE = BASE_DIR+"/@aliases.txt";
 	
 	private static final File OUTFILE = new File(BASE_DIR+"/analysis.csv");
 	private static final File ACCFILE = new File(BASE_DIR+"/accuracy.csv");
@@ -47,7 +62,7 @@ public class LLMOutputParserStandalone {
 	
 	private static final double[] AMCP_THRESHOLDS = { 0.4, 0.45, 0.5, 0.55, 0.6, 0.65, 0.7, 0.75, 0.8, 0.85, 0.9, 0.95 };
 	
-	private static enum LLM {
+	static enum LLM {
 		CHATGPT, COPILOT, GEMINI, CLAUDE, PERPLEXITY;
 		
 		public static LLM parse(String arg) {
@@ -1199,21 +1214,262 @@ public class LLMOutputParserStandalone {
 			return String.join(",", project, filename, ""+anonymized, ""+jaccard, ""+pairwiseJaccard, ""+avgDistance, ""+avgMaxCertainty, ""+maxCertaintyVariance);
 		}
 		
+		/**
+		 * Writes the same row as toCSV() without building it as a String
+		 * @param report
+		 */
+		public void writeCSV(final ReportWriter report) {
+			report.cell(project).cell(filename).cell(anonymized).cell(jaccard).cell(pairwiseJaccard);
+			report.cell(avgDistance).cell(avgMaxCertainty).cell(maxCertaintyVariance).endRow();
+		}
+		
 		@Override
 		public String toString() {
 			return "Aggregate Classification of "+project+"::"+filename + (((anonymized) ? "-anon" : "")+"(size="+size()+")");
 		}
 	}
 	
+	/**
+	 * The (project, filename, anonymized) triple a FileSummary accepts classifications by
+	 */
+	public static final class SummaryKey {
+		public final String  project;
+		public final String  filename;
+		public final boolean anonymized;
+		
+		/**
+		 * Constructs a new SummaryKey
+		 * @param project
+		 * @param filename
+		 * @param anonymized
+		 */
+		public SummaryKey(final String project, final String filename, final boolean anonymized) {
+			Objects.requireNonNull(project);
+			Objects.requireNonNull(filename);
+			this.project = project;
+			this.filename = filename;
+			this.anonymized = anonymized;
+		}
+		
+		/**
+		 * Constructs the key of the FileSummary that accepts aic
+		 * @param aic
+		 */
+		public SummaryKey(final AI_Classification aic) { this(aic.project, aic.filename, aic.anonymized); }
+		
+		/**
+		 * Constructs the key of a FileSummary
+		 * @param fs
+		 */
+		public SummaryKey(final FileSummary fs) { this(fs.project, fs.filename, fs.anonymized); }
+		
+		@Override
+		public int hashCode() { return (project.hashCode() * 31 + filename.hashCode()) * 2 + (anonymized ? 1 : 0); }
+		
+		@Override
+		public boolean equals(final Object other) {
+			if(other instanceof SummaryKey) {
+				final SummaryKey key = (SummaryKey) other;
+				return anonymized == key.anonymized && project.equals(key.project) && filename.equals(key.filename);
+			} else {
+				return false;
+			}
+		}
+		
+		@Override
+		public String toString() { return project+"::"+filename+(anonymized ? "-anon" : ""); }
+	}
+	
+	/**
+	 * The classifications process() read from one LLM output file
+	 */
+	public static final class ParsedFile {
+		public final String filename;
+		public final List<AI_Classification> answers;
+		//pattern rows with percentages that failed to parse
+		public final int errors;
+		//what process() had to say on standard output and standard error, printed once the file is merged
+		public final String log;
+		public final String diagnostics;
+		
+		/**
+		 * Constructs a new ParsedFile
+		 * @param filename
+		 * @param answers
+		 * @param errors
+		 * @param log
+		 * @param diagnostics
+		 */
+		public ParsedFile(final String filename, final List<AI_Classification> answers, final int errors,
+				final String log, final String diagnostics) {
+			this.filename = filename;
+			this.answers = Collections.unmodifiableList(answers);
+			this.errors = errors;
+			this.log = log;
+			this.diagnostics = diagnostics;
+		}
+		
+		@Override
+		public String toString() { return filename+"("+answers.size()+" classifications)"; }
+	}
+	
+	/**
+	 * Writes a CSV report row by row through one buffered writer, which is flushed when it is closed.
+	 * Doubles are appended to the reused row buffer as primitives instead of being formatted one by one.
+	 */
+	public static final class ReportWriter implements Closeable {
+		private final Writer writer;
+		//the row being built
+		private final StringBuilder row = new StringBuilder();
+		private int cells = 0;
+		
+		/**
+		 * Constructs a new ReportWriter, replacing the file's contents with the header
+		 * @param file
+		 * @param header
+		 */
+		public ReportWriter(final File file, final String header) {
+			Objects.requireNonNull(file, "A file must be specified!");
+			try {
+				writer = new BufferedWriter(new FileWriter(file), 1 << 16);
+				writer.write(header);
+				writer.write('\n');
+			} catch (final IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		
+		public ReportWriter cell(final String value) {
+			separate();
+			row.append(value);
+			return this;
+		}
+		
+		public ReportWriter cell(final boolean value) {
+			separate();
+			row.append(value);
+			return this;
+		}
+		
+		/**
+		 * Appends the value the way Double.toString() formats it
+		 * @param value
+		 * @return
+		 */
+		public ReportWriter cell(final double value) {
+			separate();
+			row.append(value);
+			return this;
+		}
+		
+		/**
+		 * @param value: written as "null" if missing
+		 * @return
+		 */
+		public ReportWriter cell(final Double value) {
+			separate();
+			if(value != null) {
+				row.append(value.doubleValue());
+			} else {
+				row.append("null");
+			}
+			return this;
+		}
+		
+		/**
+		 * Ends the row and hands it to the buffered writer
+		 */
+		public void endRow() {
+			row.append('\n');
+			try {
+				writer.append(row);
+			} catch (final IOException e) {
+				throw new RuntimeException(e);
+			}
+			
+			row.setLength(0);
+			cells = 0;
+		}
+		
+		@Override
+		public void close() {
+			try {
+				writer.close();
+			} catch (final IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		
+		private void separate() {
+			if(cells++ > 0) { row.append(','); }
+		}
+	}
+	
+	/**
+	 * The lines of a text file, read in one go through a memory-mapped channel and decoded into one CharBuffer.
+	 * Lines are found as they are iterated over and handed out as views into that buffer,
+	 * so none of them becomes a String unless the caller asks for it.
+	 * Lines end at '\n', '\r' or "\r\n", like BufferedReader.readLine().
+	 */
+	public static final class FileLines implements Iterable<CharSequence> {
+		private final CharBuffer text;
+		
+		/**
+		 * Constructs a new FileLines, reading the file as UTF-8, which is what the LLM transcripts are saved in
+		 * @param filename
+		 */
+		public FileLines(final String filename) { this(filename, StandardCharsets.UTF_8); }
+		
+		/**
+		 * Constructs a new FileLines
+		 * @param filename
+		 * @param charset: malformed input is replaced, as a Reader would
+		 */
+		public FileLines(final String filename, final Charset charset) {
+			try (final FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+				text = charset.decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+			} catch (final IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		
+		@Override
+		public Iterator<CharSequence> iterator() {
+			return new Iterator<CharSequence>() {
+				private int pos = 0;
+				
+				@Override
+				public boolean hasNext() { return pos < text.limit(); }
+				
+				@Override
+				public CharSequence next() {
+					if(!hasNext()) { throw new NoSuchElementException(); }
+					
+					int end = pos;
+					while(end < text.limit() && text.get(end) != '\n' && text.get(end) != '\r') { ++end; }
+					
+					final CharSequence line = text.subSequence(pos, end);
+					pos = end;
+					if(pos < text.limit() && text.get(pos) == '\r') { ++pos; }
+					if(pos < text.limit() && text.get(pos) == '\n' && (pos == end || text.get(end) == '\r')) { ++pos; }
+					return line;
+				}
+			};
+		}
+		
+		@Override
+		public String toString() { return "FileLines("+text.limit()+" chars)"; }
+	}
+	
 	private static final Hashtable<Pair<String, Integer>, String> DEANONYMIZER = new Hashtable<>();
+	//raw filename -> filename of its anonymized counterpart, for classes renamed between the two runs
+	private static final Hashtable<String, String> ALIASES = new Hashtable<>();
 	private static final Hashtable<LLM, Integer> NON_PATTERN_COUNT = new Hashtable<>();
 	
 	private static final InstanceCounter<String> DEBUG_SET = new InstanceCounter<>();
 	
 	private static final String JAVA_EXT = ".java";
 	
-	private static int debug_count = 0;
-	
 	/**
 	 * 
 	 * @param args
@@ -1224,10 +1480,12 @@ public class LLMOutputParserStandalone {
 		final FileTreeIterator iter = new FileTreeIterator(analysis);
 		
 		loadDeanonymizer();
+		loadAliases();
 		
 		/******************************
 		 * Read all of the AI Outputs *
 		 ******************************/
+		final ArrayList<AssistFile> files = new ArrayList<AssistFile>();
 		while(iter.hasNext()) {
 			final AssistFile file = iter.next();
 			
@@ -1241,7 +1499,18 @@ public class LLMOutputParserStandalone {
 				continue;
 			}
 			
-			process(file);
+			files.add(file);
+		}
+		
+		//grouped in file order rather than ANSWERS order: ANSWERS hashes by identity, and jaccard() depends on the order
+		final ArrayList<AI_Classification> answers = new ArrayList<AI_Classification>();
+		int debug_count = 0;
+		for(final ParsedFile parsed: parseAll(files, PARALLEL_PARSING)) {
+			answers.addAll(parsed.answers);
+			debug_count += parsed.errors;
+		}
+		if(debug_count > 0) {
+			System.err.println("Unparsable pattern rows: "+debug_count);
 		}
 		
 		int nan_jaccard_2 = 0;
@@ -1257,17 +1526,10 @@ public class LLMOutputParserStandalone {
 		/*******************************
 		 * Sort the AI Outputs by file *
 		 *******************************/
+		final Map<SummaryKey, FileSummary> byFile = groupByFile(answers, PARALLEL_GROUPING);
+		COMPARISONS.addAll(byFile.values());
+		
 		for(final AI_Classification aic: ANSWERS ) {
-			boolean added = false;
-			
-			for(final FileSummary fs: COMPARISONS) {
-				if(fs.accepts(aic)) {
-					fs.add(aic);
-					added = true;
-					break;
-				}
-			}
-			
 			for(final QuantifiedPattern qp: aic) {
 				if(qp.pattern == PatternType.NON_PATTERN) {
 					
@@ -1278,100 +1540,88 @@ public class LLMOutputParserStandalone {
 					}
 				}
 			}
-			
-			if(!added) {
-				COMPARISONS.add(new FileSummary(aic));
-			}
 		}
 		//specialAnalysis();
 		
-		writeFileLines(OUTFILE, HEADER);
-		for(final FileSummary fs: COMPARISONS) {
-			fs.computeAll(CUTOFF);
-			appendFileLines(OUTFILE, fs.toCSV());
-		}
-		
-		final StringBuilder lineBuilder = new StringBuilder();
-		writeFileLines(ACCFILE, HEADER2);
-		for(final FileSummary fs: COMPARISONS) {
-			lineBuilder.setLength(0);
-			lineBuilder.append(fs.project+","+fs.filename+","+fs.anonymized+",");
-			final Hashtable<LLM, Double> accHash = fs.accuracies();
-			lineBuilder.append(accHash.get(LLM.CHATGPT)+",");
-			lineBuilder.append(accHash.get(LLM.COPILOT)+",");
-			lineBuilder.append(accHash.get(LLM.GEMINI)+",");
-			lineBuilder.append(accHash.get(LLM.CLAUDE)+",");
-			lineBuilder.append(accHash.get(LLM.PERPLEXITY)+",");
-			appendFileLines(ACCFILE, lineBuilder.toString());
-		}
-		
-		//find the difference in both jaccards for raw and anonymized - O(n^2)COMP_FILE
+		//find the difference in both jaccards for raw and anonymized
 		double jac_total_diff = 0;
 		double pair_jac_total_diff = 0;
 		
 		int jac_anon_improve = 0;
 		int pair_jac_anon_improve = 0;
 		int pair_jac_anon_improve_not_counted = 0;
+		final ArrayList<FileSummary> unmatched = new ArrayList<FileSummary>();
 		
-		writeFileLines(COMP_FILE, HEADER3);
-		for(final FileSummary fs: COMPARISONS) {
-			
-			if(!Double.isNaN(fs.jaccard())) {
-				jaccard_5_sum += fs.jaccard();
-				jaccard_5_min = Math.min(jaccard_5_min, fs.jaccard());
-				jaccard_5_max = Math.max(jaccard_5_max, fs.jaccard());
-			} else {
-				++nan_jaccard_5;
+		//each report stays open until the end of the run, and is flushed even if it fails
+		try (final ReportWriter analysisReport = new ReportWriter(OUTFILE, HEADER);
+				final ReportWriter accuracyReport = new ReportWriter(ACCFILE, HEADER2);
+				final ReportWriter compareReport = new ReportWriter(COMP_FILE, HEADER3)) {
+			for(final FileSummary fs: COMPARISONS) {
+				fs.computeAll(CUTOFF);
+				fs.writeCSV(analysisReport);
 			}
 			
-			if(!Double.isNaN(fs.pairwiseJaccard())) {
-				jaccard_2_sum += fs.pairwiseJaccard();
-				jaccard_2_min = Math.min(jaccard_2_min, fs.pairwiseJaccard());
-				jaccard_2_max = Math.max(jaccard_2_max, fs.pairwiseJaccard());
-			} else {
-				++nan_jaccard_2;
+			for(final FileSummary fs: COMPARISONS) {
+				accuracyReport.cell(fs.project).cell(fs.filename).cell(fs.anonymized);
+				final Hashtable<LLM, Double> accHash = fs.accuracies();
+				//LLM order is the order of HEADER2
+				for(final LLM llm: LLM.values()) {
+					accuracyReport.cell(accHash.get(llm));
+				}
+				accuracyReport.cell("").endRow();
 			}
 			
-			if(fs.anonymized) { continue; }
-			lineBuilder.setLength(0);
-			lineBuilder.append(fs.project+","+fs.filename+",");
-			FileSummary counterpart = null;
-			
-			//qerr("processing: "+fs.filename);
-			
-			for(final FileSummary fsa: COMPARISONS) {
-				if(!fsa.anonymized) { continue; }
-				if(!fsa.project.equals(fs.project)) { continue; }
+			for(final FileSummary fs: COMPARISONS) {
 				
-				//Nifi FlowFileSupplier somehow got renamed…
-				if(fs.filename.equals("FlowSupplier")) {
-					if(!fsa.filename.equals("FlowFileSupplier")) { continue; }
+				if(!Double.isNaN(fs.jaccard())) {
+					jaccard_5_sum += fs.jaccard();
+					jaccard_5_min = Math.min(jaccard_5_min, fs.jaccard());
+					jaccard_5_max = Math.max(jaccard_5_max, fs.jaccard());
 				} else {
-					if(!fsa.filename.equals(fs.filename)) { continue; }
+					++nan_jaccard_5;
 				}
 				
-				counterpart = fsa;
-				break;
+				if(!Double.isNaN(fs.pairwiseJaccard())) {
+					jaccard_2_sum += fs.pairwiseJaccard();
+					jaccard_2_min = Math.min(jaccard_2_min, fs.pairwiseJaccard());
+					jaccard_2_max = Math.max(jaccard_2_max, fs.pairwiseJaccard());
+				} else {
+					++nan_jaccard_2;
+				}
+				
+				if(fs.anonymized) { continue; }
+				
+				//qerr("processing: "+fs.filename);
+				
+				final FileSummary counterpart = byFile.get(counterpartKey(fs));
+				if(counterpart == null) {
+					unmatched.add(fs);
+					continue;
+				}
+				
+				final double jaccard_diff = (fs.jaccard() - counterpart.jaccard());
+				final double pair_jaccard_diff = (fs.pairwiseJaccard() - counterpart.pairwiseJaccard());
+				
+				jac_total_diff += jaccard_diff;
+				
+				if(!Double.isNaN(pair_jaccard_diff)) {
+					pair_jac_total_diff += pair_jaccard_diff;
+				} else {
+					++pair_jac_anon_improve_not_counted;
+				}
+				
+				if(jaccard_diff < 0) { ++jac_anon_improve; }
+				if(pair_jaccard_diff < 0) { ++pair_jac_anon_improve; }
+				
+				compareReport.cell(fs.project).cell(fs.filename).cell(jaccard_diff).cell(pair_jaccard_diff).cell("").endRow();
 			}
-			
-			Objects.requireNonNull(counterpart, "Null counterpart for: "+fs.filename);
-			final double jaccard_diff = (fs.jaccard() - counterpart.jaccard());
-			final double pair_jaccard_diff = (fs.pairwiseJaccard() - counterpart.pairwiseJaccard());
-			
-			jac_total_diff += jaccard_diff;
-			
-			if(!Double.isNaN(pair_jaccard_diff)) {
-				pair_jac_total_diff += pair_jaccard_diff;
-			} else {
-				++pair_jac_anon_improve_not_counted;
+		}
+		
+		if(!unmatched.isEmpty()) {
+			System.err.println("No anonymized counterpart for "+unmatched.size()+" files (add renamed ones to "+ALIAS_FILE+"):");
+			for(final FileSummary fs: unmatched) {
+				System.err.println("\t"+fs.project+"::"+fs.filename);
 			}
-			
-			if(jaccard_diff < 0) { ++jac_anon_improve; }
-			if(pair_jaccard_diff < 0) { ++pair_jac_anon_improve; }
-			
-			lineBuilder.append(jaccard_diff+",");
-			lineBuilder.append(pair_jaccard_diff+",");
-			appendFileLines(COMP_FILE, lineBuilder.toString());
 		}
 		
 		System.out.println();
@@ -1390,11 +1640,47 @@ public class LLMOutputParserStandalone {
 		printAMCP();
 	}
 	
+	/**
+	 * Groups classifications into one FileSummary per (project, filename, anonymized)
+	 * with a hash lookup per classification, instead of testing every FileSummary's accepts()
+	 * @param answers
+	 * @param parallel: collect on the common ForkJoinPool
+	 * @return
+	 */
+	public static Map<SummaryKey, FileSummary> groupByFile(final Collection<AI_Classification> answers, final boolean parallel) {
+		final HashMap<SummaryKey, FileSummary> index = new HashMap<>();
+		
+		if(parallel) {
+			//groupingBy keeps each group in encounter order, and jaccard() depends on that order
+			final Map<SummaryKey, List<AI_Classification>> groups = answers.parallelStream().collect(
+					Collectors.groupingBy(SummaryKey::new, HashMap::new, Collectors.toList()));
+			
+			for(final Map.Entry<SummaryKey, List<AI_Classification>> group: groups.entrySet()) {
+				final SummaryKey key = group.getKey();
+				final FileSummary fs = new FileSummary(key.project, key.filename, key.anonymized);
+				fs.addAll(group.getValue());
+				index.put(key, fs);
+			}
+			return index;
+		}
+		
+		for(final AI_Classification aic: answers) {
+			final SummaryKey key = new SummaryKey(aic);
+			final FileSummary fs = index.get(key);
+			if(fs != null) {
+				fs.add(aic);
+			} else {
+				index.put(key, new FileSummary(aic));
+			}
+		}
+		return index;
+	}
+	
 	/**
 	 * Derby-ChatGPT-raw is a problem
 	 */
 	private static void specialAnalysis() {
-		process(new AssistFile("research/llm-pattern-detection/@analysis/chatgpt/derby-chatgpt.txt"));
+		parseAll(Arrays.asList(new AssistFile("research/llm-pattern-detection/@analysis/chatgpt/derby-chatgpt.txt")), false);
 		
 		System.out.println(ANSWERS);
 		
@@ -1432,6 +1718,38 @@ public class LLMOutputParserStandalone {
 		multiDistance();
 	}
 	
+	private static void loadAliases() { loadAliases(ALIAS_FILE); }
+	
+	/**
+	 * Loads the renamed classes, one "raw name = anonymized name" per line
+	 * @param aliasFile: need not exist
+	 */
+	static void loadAliases(final String aliasFile) {
+		//Nifi FlowFileSupplier somehow got renamed…
+		ALIASES.put("FlowSupplier", "FlowFileSupplier");
+		
+		if(!new File(aliasFile).isFile()) { return; }
+		
+		for(final String line: getFileLines(aliasFile)) {
+			if(line == null || !line.contains(" = ")) { continue; }
+			
+			final String[] fields = line.split(" = ", 2);
+			if(fields[0].isBlank() || fields[1].isBlank()) {
+				System.err.println("Skipping alias without both names in "+aliasFile+": \""+line+"\"");
+				continue;
+			}
+			ALIASES.put(fields[0].trim(), fields[1].trim());
+		}
+	}
+	
+	/**
+	 * @param fs: a raw FileSummary
+	 * @return the key of its anonymized counterpart
+	 */
+	public static SummaryKey counterpartKey(final FileSummary fs) {
+		return new SummaryKey(fs.project, ALIASES.getOrDefault(fs.filename, fs.filename), true);
+	}
+	
 	private static void loadDeanonymizer() {
 		for(final String str: new File(BASE_DIR).list()) {
 			if(str.startsWith("@")) { continue; }
@@ -1480,17 +1798,41 @@ public class LLMOutputParserStandalone {
 		System.out.println(ANSWERS.size());
 	}
 	
+	/**
+	 * Parses every file, then adds the classifications to ANSWERS and prints each file's
+	 * messages one file at a time, in the order of files
+	 * @param files
+	 * @param parallel: parse on the common ForkJoinPool
+	 * @return the files' results, in the same order as files
+	 */
+	public static List<ParsedFile> parseAll(final List<AssistFile> files, final boolean parallel) {
+		final List<ParsedFile> parsedFiles = (parallel ? files.parallelStream() : files.stream())
+				.map(LLMOutputParserStandalone::process).collect(Collectors.toList());
+		
+		for(final ParsedFile parsed: parsedFiles) {
+			System.out.print(parsed.log);
+			System.err.print(parsed.diagnostics);
+			ANSWERS.addAll(parsed.answers);
+		}
+		return parsedFiles;
+	}
+	
 	/**
 	 * TODO need to cut off after 5 predictions
 	 * @param file
+	 * @return
 	 */
-	private static void process(final AssistFile file) {
+	private static ParsedFile process(final AssistFile file) {
+		final ArrayList<AI_Classification> answers = new ArrayList<>();
 		final ArrayList<String> sanityCheck = new ArrayList<>();
 		final String filename = filename(file);
 		final String[] filenameFields = filename.split("-");
 		final boolean anonymized = (filenameFields.length == 3);
+		//printed by parseAll, so files parsed in parallel don't interleave
+		final StringBuilder log = new StringBuilder();
+		final StringBuilder diagnostics = new StringBuilder();
 		
-		System.out.println("Analyzing: "+filename);
+		log.append("Analyzing: "+filename).append('\n');
 		int added = 0;
 		
 		final String project = filenameFields[0];
@@ -1499,16 +1841,18 @@ public class LLMOutputParserStandalone {
 		AI_Classification aic = null; //
 		
 		int classNo = 0;
+		int errors = 0;
 		String classname = null;
 		
-		final String[] fileLines = getFileLines(file.getPath());
-		
-		for(String line: fileLines) {
-			if(line.contains("(idiom)")) {
-				System.err.println("FileSummary"+line);
+		for(final CharSequence fileLine: new FileLines(file.getPath())) {
+			if(indexOf(fileLine, "(idiom)") != -1) {
+				diagnostics.append("FileSummary"+fileLine).append('\n');
 			}
 			
-			line = line.trim();
+			//only headings and table rows are copied into Strings, the prose around them is skipped in place
+			final CharSequence trimmed = trim(fileLine);
+			if(trimmed.length() == 0 || (trimmed.charAt(0) != '#' && trimmed.charAt(0) != '|')) { continue; }
+			final String line = trimmed.toString();
 			
 			if(line.startsWith("#")) {
 				classname = anonymized ? validate(line, classNo) : extractClassName(line);
@@ -1516,7 +1860,7 @@ public class LLMOutputParserStandalone {
 				++classNo;
 				
 				if(aic != null) { 
-					ANSWERS.add(aic);
+					answers.add(aic);
 					++added;
 				}
 				
@@ -1524,7 +1868,7 @@ public class LLMOutputParserStandalone {
 					final Pair<String, Integer> key = new Pair<>(project, classNo-1);
 					
 					if(classNo == 11) {
-						System.err.println("File: '"+file+"' needs manual edits to ensure parsing compatibility");
+						diagnostics.append("File: '"+file+"' needs manual edits to ensure parsing compatibility").append('\n');
 					}
 					
 					final String myClassName = (!classname.startsWith("class#")) ? classname : DEANONYMIZER.get(key);
@@ -1552,9 +1896,9 @@ public class LLMOutputParserStandalone {
 					//if(e instanceof NumberFormatException) { e.printStackTrace(); }
 					
 					if(QuantifiedPattern.containsPercentAtFieldNo(line, 2)) {
-						System.err.println("\n"+line);
-						System.err.println(e.getMessage());
-						++debug_count;
+						diagnostics.append("\n"+line).append('\n');
+						diagnostics.append(e.getMessage()).append('\n');
+						++errors;
 					}
 				}	
 				continue;
@@ -1562,13 +1906,15 @@ public class LLMOutputParserStandalone {
 		}
 		
 		if(aic != null) {
-			ANSWERS.add(aic);
+			answers.add(aic);
 			++added;
 		}
 		if(added != 10) {
-			System.err.println("Added: "+added);
-			System.err.println(sanityCheck);
+			diagnostics.append("Added: "+added).append('\n');
+			diagnostics.append(sanityCheck).append('\n');
 		}
+		
+		return new ParsedFile(filename, answers, errors, log.toString(), diagnostics.toString());
 	}
 
 	/**
@@ -1666,57 +2012,16 @@ public class LLMOutputParserStandalone {
 	}
 	
 	public static final String[] getFileLines(final String filename) {
-		final String retVal[];
 		final ArrayList<String> fileLines = new ArrayList<String>();
-		
-		String line;
-		
-		try (final BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-			for(line = reader.readLine(); reader.ready(); line = reader.readLine()) {
-				fileLines.add(line);
-			}
-			fileLines.add(line);
-		} catch (final IOException e) {
-			throw new RuntimeException(e);
+		for(final CharSequence line: new FileLines(filename)) {
+			fileLines.add(line.toString());
 		}
 		
-		retVal = new String[fileLines.size()];
+		final String retVal[] = new String[fileLines.size()];
 		fileLines.toArray(retVal);
 		return retVal;
 	}
 	
-	static final void writeFileLines(final File outFile, String... lines) {
-		Objects.requireNonNull(outFile, "A file must be specified!");
-		
-		if(lines == null) {
-			return;
-		}
-		
-		try (final PrintWriter writer = new PrintWriter(outFile)) {
-			for(final Object line: lines) {
-				writer.write((line != null) ? line.toString() + "\n" : "\n");
-			}
-		} catch (final FileNotFoundException e) {
-			throw new RuntimeException(e);
-		}
-	}
-	
-	static final void appendFileLines(final File outFile, String... lines) {
-		Objects.requireNonNull(outFile, "A file must be specified!");
-
-		if(lines == null) {
-			return;
-		}
-		
-		try (final PrintWriter writer = new PrintWriter(new FileWriter(outFile, true))) {
-			for(final Object line: lines) {
-				writer.write((line != null) ? line.toString() + "\n" : "\n");
-			}
-		} catch (final IOException e) {
-			throw new RuntimeException(e);
-		}
-	}
-	
 	private static final String removeCharsBetweenDelimiters(String line, final String delim1, final String delim2) {
 		
 		while(line.contains(delim1) && line.contains(delim2)) {
@@ -1759,6 +2064,28 @@ public class LLMOutputParserStandalone {
 		return builder.toString();
 	}
 	
+	/**
+	 * @param line
+	 * @return line without leading or trailing whitespace, as a view like String.trim() would cut it
+	 */
+	private static final CharSequence trim(final CharSequence line) {
+		int start = 0;
+		int end = line.length();
+		while(start < end && line.charAt(start) <= ' ') { ++start; }
+		while(end > start && line.charAt(end-1) <= ' ') { --end; }
+		return line.subSequence(start, end);
+	}
+	
+	private static final int indexOf(final CharSequence searchIn, final String searchFor) {
+		final int last = searchIn.length() - searchFor.length();
+		for(int start = 0; start <= last; ++start) {
+			int index = 0;
+			while(index < searchFor.length() && searchIn.charAt(start+index) == searchFor.charAt(index)) { ++index; }
+			if(index == searchFor.length()) { return start; }
+		}
+		return -1;
+	}
+	
 	private static final boolean containsIgnoreCase(final String searchIn, final String searchFor) {
 		return (searchIn.toLowerCase().contains(searchFor.toLowerCase()));
  	}
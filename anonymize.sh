@@ -0,0 +1,32 @@
+#!/bin/sh
+# One-shot anonymizer launcher: ./anonymize.sh Foo.java > Foo.txt (no arguments reads standard input)
+#
+# A single file anonymizes in a few milliseconds; starting the JVM and loading
+# the classes takes far longer.  The first run compiles JavaAnonymizerStandalone
+# into build/anonymizer.jar and trains an AppCDS archive by anonymizing every
+# sample .java file once, so later runs map the classes already parsed and
+# verified instead of loading them.  Rebuilt whenever the source is newer.
+set -e
+
+DIR=$(cd "$(dirname "$0")" && pwd)
+BUILD="$DIR/build"
+JAR="$BUILD/anonymizer.jar"
+ARCHIVE="$BUILD/anonymizer.jsa"
+MAIN=anonymize.JavaAnonymizerStandalone
+# a one-shot run ends before C2 or a concurrent collector would pay off;
+# the archive has to be used with the options it was trained with
+JVM_OPTS="-XX:TieredStopAtLevel=1 -XX:+UseSerialGC"
+
+if [ ! -f "$JAR" ] || [ "$DIR/JavaAnonymizerStandalone.java" -nt "$JAR" ]; then
+	rm -rf "$BUILD/classes" "$ARCHIVE"
+	mkdir -p "$BUILD/classes"
+	javac -nowarn -encoding UTF-8 -d "$BUILD/classes" "$DIR/JavaAnonymizerStandalone.java"
+	jar cf "$JAR" -C "$BUILD/classes" .
+fi
+
+if [ ! -f "$ARCHIVE" ]; then
+	find "$DIR" -mindepth 2 -name '*.java' ! -path "$BUILD/*" ! -path "$DIR/target/*" -exec \
+		java $JVM_OPTS -XX:ArchiveClassesAtExit="$ARCHIVE" -cp "$JAR" $MAIN {} + > /dev/null
+fi
+
+exec java $JVM_OPTS -XX:SharedArchiveFile="$ARCHIVE" -cp "$JAR" $MAIN "$@"
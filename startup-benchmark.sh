@@ -0,0 +1,42 @@
+#!/bin/sh
+# Cold start of the one-file path: ./startup-benchmark.sh [runs] [file.java]
+#
+# Times whole JVM runs anonymizing one file: without any class sharing, with
+# the default JVM (which shares the JDK's own classes), with the launcher's
+# JVM options, and with those options plus the AppCDS archive built by
+# anonymize.sh.  Needs GNU date for nanoseconds.
+set -e
+
+DIR=$(cd "$(dirname "$0")" && pwd)
+RUNS=${1:-20}
+FILE=${2:-$(find "$DIR" -mindepth 2 -name '*.java' ! -path "$DIR/build/*" ! -path "$DIR/target/*" | sort | head -n 1)}
+JAR="$DIR/build/anonymizer.jar"
+ARCHIVE="$DIR/build/anonymizer.jsa"
+MAIN=anonymize.JavaAnonymizerStandalone
+JVM_OPTS="-XX:TieredStopAtLevel=1 -XX:+UseSerialGC"
+
+# builds the jar and archive if needed
+"$DIR/anonymize.sh" "$FILE" > /dev/null
+
+measure() {
+	label=$1
+	shift
+	total=0
+	best=
+	run=0
+	while [ $run -lt "$RUNS" ]; do
+		start=$(date +%s%N)
+		"$@" "$FILE" > /dev/null
+		elapsed=$(( ($(date +%s%N) - start) / 1000 ))
+		total=$((total + elapsed))
+		if [ -z "$best" ] || [ $elapsed -lt "$best" ]; then best=$elapsed; fi
+		run=$((run + 1))
+	done
+	printf '%-24s mean %6d us, best %6d us\n' "$label" $((total / RUNS)) "$best"
+}
+
+echo "$RUNS runs anonymizing $FILE"
+measure "no class sharing" java -Xshare:off -cp "$JAR" $MAIN
+measure "default JVM" java -cp "$JAR" $MAIN
+measure "launcher options" java $JVM_OPTS -cp "$JAR" $MAIN
+measure "launcher options + CDS" java $JVM_OPTS -XX:SharedArchiveFile="$ARCHIVE" -cp "$JAR" $MAIN
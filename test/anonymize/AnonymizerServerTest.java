@@ -0,0 +1,70 @@
+package anonymize;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Regression tests for AnonymizerServer
+ */
+
+public class AnonymizerServerTest {
+	private static final HttpClient CLIENT = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+	
+	/**
+	 * A snippet is answered exactly as anonymize(Reader, Writer) would write it, and only POST is accepted
+	 */
+	@Test
+	public void answersLikeAnonymize() throws IOException, InterruptedException {
+		try (final AnonymizerServer server = new AnonymizerServer(new JavaAnonymizerStandalone(), 0, ForkJoinPool.commonPool())) {
+			final String code = "class Example {\n\tString name = \"café\";\n}";
+			final HttpResponse<String> ok = post(server, code);
+			assertEquals(200, ok.statusCode());
+			assertEquals(String.join("\n", new JavaAnonymizerStandalone().anonamize(code.split("\n"))), ok.body());
+			
+			final HttpRequest get = HttpRequest.newBuilder(URI.create("http://127.0.0.1:"+server.port()+AnonymizerServer.ANONYMIZE))
+					.timeout(Duration.ofSeconds(10)).GET().build();
+			assertEquals(405, CLIENT.send(get, HttpResponse.BodyHandlers.ofString()).statusCode());
+		}
+	}
+	
+	/**
+	 * A snippet the anonymizer fails on is answered with a 500, and the server keeps answering
+	 */
+	@Test
+	public void serverSurvivesFailingSnippet() throws IOException, InterruptedException {
+		final JavaAnonymizerStandalone failing = new JavaAnonymizerStandalone() {
+			@Override
+			public void anonymize(final ByteBuffer in, final WritableByteChannel out, final Charset charset,
+					final CorpusScope scope) throws IOException {
+				if(in.remaining() > 0 && in.get(in.position()) == '!') { throw new IllegalStateException("fail"); }
+				super.anonymize(in, out, charset, scope);
+			}
+		};
+		
+		try (final AnonymizerServer server = new AnonymizerServer(failing, 0, ForkJoinPool.commonPool())) {
+			assertEquals(500, post(server, "!").statusCode());
+			
+			final HttpResponse<String> ok = post(server, "int value = 1;");
+			assertEquals(200, ok.statusCode());
+			assertEquals(String.join("\n", new JavaAnonymizerStandalone().anonamize(new String[] { "int value = 1;" })), ok.body());
+		}
+	}
+	
+	private static HttpResponse<String> post(final AnonymizerServer server, final String code) throws IOException, InterruptedException {
+		final HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:"+server.port()+AnonymizerServer.ANONYMIZE))
+				.timeout(Duration.ofSeconds(10)).POST(HttpRequest.BodyPublishers.ofString(code)).build();
+		return CLIENT.send(request, HttpResponse.BodyHandlers.ofString());
+	}
+}
@@ -0,0 +1,577 @@
+package anonymize;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Regression tests for JavaAnonymizerStandalone
+ */
+
+public class JavaAnonymizerStandaloneTest {
+	private static final String CODE = "public class Example {\n\tprivate int count = 42;\n\tString name = \"example\";\n}\n";
+	
+	@TempDir
+	Path temp;
+	
+	/**
+	 * A second run over an unchanged file is served from the cache and writes the same class#N.txt
+	 */
+	@Test
+	public void cacheHitMatchesMiss() throws IOException {
+		final Path source = writeProject("Example.java", CODE.getBytes(StandardCharsets.UTF_8));
+		final Path cacheFile = temp.resolve("cache.log");
+		
+		final byte[] miss;
+		try (final JavaAnonymizerStandalone.AnonymizationCache cache = new JavaAnonymizerStandalone.AnonymizationCache(cacheFile)) {
+			cached(cache).anonymizeCorpus(temp.resolve("corpus"));
+			assertEquals(1, cache.size());
+			miss = Files.readAllBytes(source.resolveSibling("class#0.txt"));
+		}
+		
+		Files.delete(source.resolveSibling("class#0.txt"));
+		try (final JavaAnonymizerStandalone.AnonymizationCache cache = new JavaAnonymizerStandalone.AnonymizationCache(cacheFile)) {
+			assertEquals(1, cache.size());
+			cached(cache).anonymizeCorpus(temp.resolve("corpus"));
+			//a miss would have appended a second record
+			assertEquals(1, cache.size());
+		}
+		
+		assertArrayEquals(miss, Files.readAllBytes(source.resolveSibling("class#0.txt")));
+		
+		new JavaAnonymizerStandalone.CorpusAnonymizer().anonymizeCorpus(temp.resolve("corpus"));
+		assertArrayEquals(miss, Files.readAllBytes(source.resolveSibling("class#0.txt")));
+	}
+	
+	/**
+	 * A record cut short by a crash is dropped on the next open, and the log stays appendable
+	 */
+	@Test
+	public void truncatedLogRecovery() throws IOException {
+		final Path cacheFile = temp.resolve("cache.log");
+		final byte[] first = key(1);
+		final byte[] second = key(2);
+		
+		try (final JavaAnonymizerStandalone.AnonymizationCache cache = new JavaAnonymizerStandalone.AnonymizationCache(cacheFile)) {
+			cache.put(first, "first".getBytes(StandardCharsets.UTF_8));
+			cache.put(second, "second".getBytes(StandardCharsets.UTF_8));
+		}
+		final long complete = Files.size(cacheFile);
+		try (final FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.WRITE)) {
+			channel.truncate(complete-3);
+		}
+		
+		try (final JavaAnonymizerStandalone.AnonymizationCache cache = new JavaAnonymizerStandalone.AnonymizationCache(cacheFile)) {
+			assertEquals(1, cache.size());
+			assertArrayEquals("first".getBytes(StandardCharsets.UTF_8), cache.get(first));
+			assertNull(cache.get(second));
+			
+			cache.put(second, "again".getBytes(StandardCharsets.UTF_8));
+			assertArrayEquals("again".getBytes(StandardCharsets.UTF_8), cache.get(second));
+		}
+		
+		try (final JavaAnonymizerStandalone.AnonymizationCache cache = new JavaAnonymizerStandalone.AnonymizationCache(cacheFile)) {
+			assertEquals(2, cache.size());
+			assertArrayEquals("again".getBytes(StandardCharsets.UTF_8), cache.get(second));
+		}
+	}
+	
+	/**
+	 * Malformed UTF-8 fails the file whether or not a cache is in use, instead of being replaced
+	 */
+	@Test
+	public void malformedInputReportedWithCache() throws IOException {
+		final byte[] malformed = Arrays.copyOf(CODE.getBytes(StandardCharsets.UTF_8), CODE.length()+1);
+		malformed[CODE.length()] = (byte) 0xC3;
+		writeProject("Example.java", malformed);
+		
+		assertThrows(RuntimeException.class, () -> new JavaAnonymizerStandalone.CorpusAnonymizer().anonymizeCorpus(temp.resolve("corpus")));
+		try (final JavaAnonymizerStandalone.AnonymizationCache cache = new JavaAnonymizerStandalone.AnonymizationCache(temp.resolve("cache.log"))) {
+			assertThrows(RuntimeException.class, () -> cached(cache).anonymizeCorpus(temp.resolve("corpus")));
+			assertEquals(0, cache.size());
+		}
+	}
+	
+	/**
+	 * Files anonymized in parallel with one scope agree on the number of every shared name
+	 */
+	@Test
+	public void scopedParallelNumbering() throws IOException {
+		final int files = 40;
+		for(int index = 0; index < files; ++index) {
+			writeProject("Class"+suffix(index)+".java", ("class Class"+suffix(index)+" { String shared = \"seven\"; String unique"+suffix(index)
+					+" = \"v"+index+"\"; }\n").getBytes(StandardCharsets.UTF_8));
+		}
+		
+		final JavaAnonymizerStandalone.CorpusScope scope = new JavaAnonymizerStandalone.CorpusScope();
+		final ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			new JavaAnonymizerStandalone.CorpusAnonymizer(new JavaAnonymizerStandalone(), pool, null, scope).anonymizeCorpus(temp.resolve("corpus"));
+		} finally {
+			pool.shutdown();
+		}
+		
+		final String shared = "ident$"+scope.identifiers.idOf("shared");
+		final String seven = "\"literal$"+scope.literals.idOf("\"seven\"")+"\"";
+		//class numbers follow file name order
+		for(int index = 0; index < files; ++index) {
+			final String output = new String(Files.readAllBytes(temp.resolve("corpus/project/class#"+index+".txt")), StandardCharsets.UTF_8);
+			assertTrue(output.contains(shared+" = "+seven), output);
+			assertTrue(output.contains("ident$"+scope.identifiers.idOf("unique"+suffix(index))+" = "), output);
+		}
+		//a class name and a unique name per file, plus String and shared; no id handed out twice
+		assertEquals(2*files+2, scope.identifiers.size());
+		assertEquals(files+1, scope.literals.size());
+	}
+	
+	/**
+	 * A saved and loaded scope keeps its id and numbering, and numbers new names after the old ones
+	 */
+	@Test
+	public void scopeSaveLoad() throws IOException {
+		final JavaAnonymizerStandalone anonymizer = new JavaAnonymizerStandalone();
+		final String[] code = CODE.split("\n");
+		final JavaAnonymizerStandalone.CorpusScope scope = new JavaAnonymizerStandalone.CorpusScope();
+		final String[] expected = anonymizer.anonamize(code, scope);
+		
+		scope.save(temp.resolve("scope.bin"));
+		final JavaAnonymizerStandalone.CorpusScope loaded = JavaAnonymizerStandalone.CorpusScope.load(temp.resolve("scope.bin"));
+		
+		assertEquals(scope.id, loaded.id);
+		assertArrayEquals(scope.identifiers.names(), loaded.identifiers.names());
+		assertArrayEquals(scope.literals.names(), loaded.literals.names());
+		assertArrayEquals(expected, anonymizer.anonamize(code, loaded));
+		assertEquals(scope.identifiers.size(), loaded.identifiers.idOf("newName"));
+	}
+	
+	/**
+	 * A cache hit registers the file's names with a scope rebuilt from an older save,
+	 * so files anonymized after it do not reuse the ids the cached output refers to
+	 */
+	@Test
+	public void cacheHitReplaysScope() throws IOException {
+		final Path first = writeProject("A.java", "class A { int alpha = 1; }\n".getBytes(StandardCharsets.UTF_8));
+		final Path scopeFile = temp.resolve("scope.bin");
+		final Path cacheFile = temp.resolve("cache.log");
+		
+		final JavaAnonymizerStandalone.CorpusScope scope = new JavaAnonymizerStandalone.CorpusScope();
+		scope.save(scopeFile);
+		try (final JavaAnonymizerStandalone.AnonymizationCache cache = new JavaAnonymizerStandalone.AnonymizationCache(cacheFile)) {
+			new JavaAnonymizerStandalone.CorpusAnonymizer(new JavaAnonymizerStandalone(), ForkJoinPool.commonPool(), cache, scope)
+					.anonymizeCorpus(temp.resolve("corpus"));
+		}
+		final byte[] cachedOutput = Files.readAllBytes(first.resolveSibling("class#0.txt"));
+		
+		//the run above was never saved; the next one starts from the empty scope on disk
+		writeProject("B.java", "class B { int beta = 2; }\n".getBytes(StandardCharsets.UTF_8));
+		final JavaAnonymizerStandalone.CorpusScope rebuilt = JavaAnonymizerStandalone.CorpusScope.load(scopeFile);
+		try (final JavaAnonymizerStandalone.AnonymizationCache cache = new JavaAnonymizerStandalone.AnonymizationCache(cacheFile)) {
+			new JavaAnonymizerStandalone.CorpusAnonymizer(new JavaAnonymizerStandalone(), new ForkJoinPool(1), cache, rebuilt)
+					.anonymizeCorpus(temp.resolve("corpus"));
+		}
+		
+		assertArrayEquals(cachedOutput, Files.readAllBytes(first.resolveSibling("class#0.txt")));
+		for(final String name: scope.identifiers.names()) {
+			assertEquals(scope.identifiers.idOf(name), rebuilt.identifiers.idOf(name), name);
+		}
+		final String beta = new String(Files.readAllBytes(first.resolveSibling("class#1.txt")), StandardCharsets.UTF_8);
+		for(final String id: ids(beta, "ident")) {
+			assertTrue(Integer.parseInt(id) >= scope.identifiers.size(), beta);
+		}
+	}
+	
+	/**
+	 * A cached file whose names were numbered differently by the current scope is anonymized again
+	 */
+	@Test
+	public void cacheHitDisagreeingWithScopeMisses() throws IOException {
+		final Path source = writeProject("A.java", "class A { int alpha = 1; }\n".getBytes(StandardCharsets.UTF_8));
+		final Path scopeFile = temp.resolve("scope.bin");
+		final Path cacheFile = temp.resolve("cache.log");
+		new JavaAnonymizerStandalone.CorpusScope().save(scopeFile);
+		
+		try (final JavaAnonymizerStandalone.AnonymizationCache cache = new JavaAnonymizerStandalone.AnonymizationCache(cacheFile)) {
+			new JavaAnonymizerStandalone.CorpusAnonymizer(new JavaAnonymizerStandalone(), ForkJoinPool.commonPool(), cache,
+					JavaAnonymizerStandalone.CorpusScope.load(scopeFile)).anonymizeCorpus(temp.resolve("corpus"));
+		}
+		final String cachedOutput = new String(Files.readAllBytes(source.resolveSibling("class#0.txt")), StandardCharsets.UTF_8);
+		
+		final JavaAnonymizerStandalone.CorpusScope other = JavaAnonymizerStandalone.CorpusScope.load(scopeFile);
+		other.identifiers.idOf("somethingElse");
+		try (final JavaAnonymizerStandalone.AnonymizationCache cache = new JavaAnonymizerStandalone.AnonymizationCache(cacheFile)) {
+			new JavaAnonymizerStandalone.CorpusAnonymizer(new JavaAnonymizerStandalone(), ForkJoinPool.commonPool(), cache, other)
+					.anonymizeCorpus(temp.resolve("corpus"));
+		}
+		
+		final String output = new String(Files.readAllBytes(source.resolveSibling("class#0.txt")), StandardCharsets.UTF_8);
+		assertNotEquals(cachedOutput, output);
+		assertEquals(String.join("\n", new JavaAnonymizerStandalone().anonamize(new String[] { "class A { int alpha = 1; }" }, other))+"\n", output);
+	}
+	
+	/**
+	 * The side-car map turns every output line back into its source line, less comments and spacing
+	 */
+	@Test
+	public void deanonymizationMapRoundTrip() throws IOException {
+		final String[] code = { "class Greeter {", "\t// says hello", "\tString greeting = \"hi\";", "", "\tchar initial = 'x';", "}" };
+		final JavaAnonymizerStandalone anonymizer = new JavaAnonymizerStandalone();
+		final Path mapFile = temp.resolve("Greeter.map");
+		
+		final String[] output = anonymizer.anonamize(code, mapFile);
+		assertArrayEquals(anonymizer.anonamize(code), output);
+		
+		final JavaAnonymizerStandalone.DeanonymizationMap map = JavaAnonymizerStandalone.DeanonymizationMap.open(mapFile);
+		assertEquals(output.length, map.lineCount());
+		assertEquals(2, map.literalCount());
+		
+		final int[] sourceLines = { 1, 3, 5, 6 };
+		for(int line = 0; line < output.length; ++line) {
+			assertEquals(sourceLines[line], map.originalLine(line));
+			assertEquals(code[sourceLines[line]-1].trim(), map.deanonymize(output[line]).trim());
+		}
+		assertEquals("Greeter", map.identifier(Integer.parseInt(ids(output[0], "ident")[0])));
+	}
+	
+	/**
+	 * The token stream holds the same tokens as the text output, less the spaces
+	 */
+	@Test
+	public void tokenStreamMatchesText() {
+		final JavaAnonymizerStandalone anonymizer = new JavaAnonymizerStandalone(JavaAnonymizerStandalone.MODERN_MATCHER);
+		final String[] code = CODE.split("\n");
+		final int[] tokens = anonymizer.tokenize(code);
+		
+		final StringBuilder text = new StringBuilder();
+		for(final int token: tokens) {
+			final int value = JavaAnonymizerStandalone.TokenStream.value(token);
+			switch(JavaAnonymizerStandalone.TokenStream.kind(token)) {
+			case JavaAnonymizerStandalone.TokenStream.KEYWORD:
+				text.append(JavaAnonymizerStandalone.MODERN_MATCHER.keyword(value));
+				break;
+			case JavaAnonymizerStandalone.TokenStream.IDENTIFIER:
+				text.append("ident$").append(value);
+				break;
+			case JavaAnonymizerStandalone.TokenStream.LITERAL:
+				text.append("\"literal$").append(value).append('"');
+				break;
+			case JavaAnonymizerStandalone.TokenStream.CHAR_LITERAL:
+				text.append("'char-literal$").append(value).append('\'');
+				break;
+			case JavaAnonymizerStandalone.TokenStream.CHARACTER:
+				text.append((char) value);
+				break;
+			case JavaAnonymizerStandalone.TokenStream.NEWLINE:
+				text.append('\n');
+				break;
+			}
+		}
+		assertEquals(String.join("\n", anonymizer.anonamize(code)).replace(" ", ""), text.toString());
+		
+		final JavaAnonymizerStandalone.TokenStream stream = new JavaAnonymizerStandalone.TokenStream();
+		anonymizer.tokenize(code, stream, null);
+		assertArrayEquals(tokens, stream.toArray());
+		
+		final ByteBuffer buffer = ByteBuffer.allocate(tokens.length*4);
+		stream.writeTo(buffer);
+		buffer.flip();
+		for(final int token: tokens) {
+			assertEquals(token, buffer.getInt());
+		}
+	}
+	
+	/**
+	 * A mapped cramfile is anonymized class by class into the cramfile-anon.txt layout, with or without a cache
+	 */
+	@Test
+	public void cramfileMatchesClasses() throws IOException {
+		final String[] classes = { "class First { int alpha = 1; }", "class Second {\n\tString beta = \"b\";\n}", "interface Third { }" };
+		final String divider = JavaAnonymizerStandalone.CorpusAnonymizer.DIVIDER;
+		final Path cramfile = Files.write(temp.resolve("cramfile.txt"),
+				(classes[0]+"\n"+divider+"\r\n"+classes[1]+"\n"+divider+"\n"+classes[2]+"\n").getBytes(StandardCharsets.UTF_8));
+		
+		final JavaAnonymizerStandalone anonymizer = new JavaAnonymizerStandalone();
+		final StringBuilder expected = new StringBuilder();
+		for(final String code: classes) {
+			if(expected.length() > 0) { expected.append(divider).append('\n'); }
+			expected.append(String.join("\n", anonymizer.anonamize((code+"\n").split("\n", -1)))).append('\n');
+		}
+		
+		final Path out = temp.resolve("cramfile-anon.txt");
+		assertEquals(3, new JavaAnonymizerStandalone.CorpusAnonymizer().anonymizeCramfile(cramfile, out));
+		assertEquals(expected.toString(), new String(Files.readAllBytes(out), StandardCharsets.UTF_8));
+		
+		try (final JavaAnonymizerStandalone.AnonymizationCache cache = new JavaAnonymizerStandalone.AnonymizationCache(temp.resolve("cache.log"))) {
+			cached(cache).anonymizeCramfile(cramfile, out);
+			assertEquals(expected.toString(), new String(Files.readAllBytes(out), StandardCharsets.UTF_8));
+			cached(cache).anonymizeCramfile(cramfile, out);
+			assertEquals(3, cache.size());
+			assertEquals(expected.toString(), new String(Files.readAllBytes(out), StandardCharsets.UTF_8));
+		}
+	}
+	
+	/**
+	 * Policy rules keep JDK types, matching method calls and annotations; the default policy changes nothing
+	 */
+	@Test
+	public void policyKeepsNames() {
+		final String[] code = { "@Override public String toString() { List<String> names = new ArrayList<>(); return getName() + getName; }" };
+		final JavaAnonymizerStandalone.AnonymizationPolicy policy = new JavaAnonymizerStandalone.AnonymizationPolicy(
+				JavaAnonymizerStandalone.AnonymizationPolicy.JDK_TYPES, "get[A-Z].*|toString", true, null);
+		final String output = new JavaAnonymizerStandalone(JavaAnonymizerStandalone.MODERN_MATCHER, policy).anonamize(code)[0];
+		
+		assertTrue(output.startsWith("@Override public String toString() { List<String> ident$"), output);
+		assertTrue(output.contains("new ArrayList<>()"), output);
+		assertTrue(output.contains("return getName() + ident$"), output);
+		
+		final JavaAnonymizerStandalone plain = new JavaAnonymizerStandalone(JavaAnonymizerStandalone.MODERN_MATCHER);
+		final JavaAnonymizerStandalone none = new JavaAnonymizerStandalone(JavaAnonymizerStandalone.MODERN_MATCHER,
+				JavaAnonymizerStandalone.AnonymizationPolicy.NONE);
+		assertArrayEquals(plain.anonamize(code), none.anonamize(code));
+		assertArrayEquals(plain.fingerprint(), none.fingerprint());
+		assertNotEquals(Arrays.toString(plain.fingerprint()),
+				Arrays.toString(new JavaAnonymizerStandalone(JavaAnonymizerStandalone.MODERN_MATCHER, policy).fingerprint()));
+	}
+	
+	/**
+	 * A hashed identifier gets the same id in every file, whatever else the file holds
+	 */
+	@Test
+	public void hashedIdentifiersAgreeAcrossFiles() {
+		final JavaAnonymizerStandalone anonymizer = new JavaAnonymizerStandalone(JavaAnonymizerStandalone.MODERN_MATCHER,
+				new JavaAnonymizerStandalone.AnonymizationPolicy(null, null, false, new JavaAnonymizerStandalone.IdentifierHasher()));
+		final String first = anonymizer.anonamize(new String[] { "int alpha = beta;" })[0];
+		final String second = anonymizer.anonamize(new String[] { "int gamma = delta + beta;" })[0];
+		
+		final String beta = ids(first, "ident")[1];
+		assertEquals(beta, ids(second, "ident")[2]);
+		assertNotEquals(ids(first, "ident")[0], beta);
+		assertTrue(Long.parseLong(beta) < (1L << JavaAnonymizerStandalone.IdentifierHasher.BITS));
+	}
+	
+	/**
+	 * Keyed hashes depend on the key, fit the configured width, and collisions are caught when asked for
+	 */
+	@Test
+	public void hmacWidthAndCollisions() {
+		final char[] name = "identifier".toCharArray();
+		final byte[] key = "secret".getBytes(StandardCharsets.UTF_8);
+		final JavaAnonymizerStandalone.IdentifierHasher keyed = new JavaAnonymizerStandalone.IdentifierHasher(key, 12, false);
+		
+		assertEquals(keyed.hash(name, name.length), new JavaAnonymizerStandalone.IdentifierHasher(key, 12, false).hash(name, name.length));
+		assertNotEquals(new JavaAnonymizerStandalone.IdentifierHasher(key, 28, false).hash(name, name.length),
+				new JavaAnonymizerStandalone.IdentifierHasher("other".getBytes(StandardCharsets.UTF_8), 28, false).hash(name, name.length));
+		assertNotEquals(Arrays.toString(fingerprint(keyed)),
+				Arrays.toString(fingerprint(new JavaAnonymizerStandalone.IdentifierHasher("other".getBytes(StandardCharsets.UTF_8), 12, false))));
+		
+		for(int index = 0; index < 1000; ++index) {
+			final char[] text = ("name"+index).toCharArray();
+			assertTrue(keyed.hash(text, text.length) < (1 << 12));
+		}
+		assertThrows(IllegalArgumentException.class, () -> new JavaAnonymizerStandalone.IdentifierHasher(null, 29, false));
+		assertThrows(IllegalArgumentException.class, () -> new JavaAnonymizerStandalone.IdentifierHasher(new byte[0], 28, false));
+		
+		//257 names cannot all get different 8-bit hashes
+		final JavaAnonymizerStandalone.IdentifierHasher checked = new JavaAnonymizerStandalone.IdentifierHasher(null, 8, true);
+		assertThrows(IllegalStateException.class, () -> {
+			for(int index = 0; index <= 256; ++index) {
+				final char[] text = ("name"+index).toCharArray();
+				checked.hash(text, text.length);
+			}
+		});
+		final char[] repeated = "name0".toCharArray();
+		final JavaAnonymizerStandalone.IdentifierHasher again = new JavaAnonymizerStandalone.IdentifierHasher(null, 8, true);
+		assertEquals(again.hash(repeated, repeated.length), again.hash(repeated, repeated.length));
+	}
+	
+	/**
+	 * With hashing, anonymizing the halves of a file separately gives the output of the whole file
+	 */
+	@Test
+	public void hashedShardsJoin() {
+		final JavaAnonymizerStandalone anonymizer = new JavaAnonymizerStandalone(JavaAnonymizerStandalone.MODERN_MATCHER,
+				new JavaAnonymizerStandalone.AnonymizationPolicy(null, null, false, new JavaAnonymizerStandalone.IdentifierHasher()));
+		final String[] code = CODE.split("\n");
+		final String[] whole = anonymizer.anonamize(code);
+		final String[] first = anonymizer.anonamize(Arrays.copyOfRange(code, 0, 2));
+		final String[] second = anonymizer.anonamize(Arrays.copyOfRange(code, 2, code.length));
+		
+		final String[] joined = Arrays.copyOf(first, first.length+second.length);
+		System.arraycopy(second, 0, joined, first.length, second.length);
+		assertArrayEquals(whole, joined);
+	}
+	
+	/**
+	 * Per-file metrics count what the lexer saw, and the corpus totals tell cached files apart
+	 */
+	@Test
+	public void fileAndCorpusMetrics() throws IOException {
+		final String code = "class A { int b = \"c\".length(); }";
+		final JavaAnonymizerStandalone.FileMetrics metrics = new JavaAnonymizerStandalone.FileMetrics();
+		final StringWriter out = new StringWriter();
+		new JavaAnonymizerStandalone().anonymize(new StringReader(code), out, null, metrics);
+		
+		assertEquals(code.length(), metrics.charsIn);
+		assertEquals(out.toString().length(), metrics.charsOut);
+		assertEquals(2, metrics.keywords);
+		assertEquals(3, metrics.identifiers);
+		assertEquals(1, metrics.literals);
+		assertEquals(5, metrics.symbols);
+		assertEquals(1, metrics.distinctLiterals);
+		assertTrue(metrics.readNanos >= 0 && metrics.scanNanos >= 0 && metrics.writeNanos >= 0);
+		
+		writeProject("Example.java", CODE.getBytes(StandardCharsets.UTF_8));
+		writeProject("Other.java", code.getBytes(StandardCharsets.UTF_8));
+		try (final JavaAnonymizerStandalone.AnonymizationCache cache = new JavaAnonymizerStandalone.AnonymizationCache(temp.resolve("cache.log"))) {
+			for(int run = 0; run < 2; ++run) {
+				final JavaAnonymizerStandalone.CorpusMetrics corpus = new JavaAnonymizerStandalone.CorpusMetrics();
+				new JavaAnonymizerStandalone.CorpusAnonymizer(new JavaAnonymizerStandalone(), ForkJoinPool.commonPool(), cache, null, corpus)
+						.anonymizeCorpus(temp.resolve("corpus"));
+				assertEquals((run == 0) ? 2 : 0, corpus.charsIn.count());
+				assertEquals((run == 0) ? 0 : 2, corpus.cachedFiles());
+			}
+		}
+	}
+	
+	/**
+	 * Histogram buckets are exact for small values and within 1/64 above for large ones
+	 */
+	@Test
+	public void histogramBuckets() {
+		final JavaAnonymizerStandalone.Histogram small = new JavaAnonymizerStandalone.Histogram();
+		for(int value = 0; value < 128; ++value) {
+			small.record(value);
+		}
+		assertEquals(63, small.percentile(50));
+		assertEquals(127, small.percentile(100));
+		assertEquals(63.5, small.mean(), 1e-9);
+		
+		final JavaAnonymizerStandalone.Histogram large = new JavaAnonymizerStandalone.Histogram();
+		for(long value = 1; value <= 100000; ++value) {
+			large.record(value);
+		}
+		for(final double percent: new double[] { 10, 50, 90, 99, 99.9 }) {
+			final long exact = (long) Math.ceil(100000 * percent / 100);
+			final long reported = large.percentile(percent);
+			assertTrue(reported >= exact && reported <= exact + exact/64, percent+": "+reported);
+		}
+		assertEquals(100000, large.max());
+		
+		final JavaAnonymizerStandalone.Histogram extremes = new JavaAnonymizerStandalone.Histogram();
+		extremes.record(Long.MAX_VALUE);
+		extremes.record(5);
+		extremes.record(-3);
+		assertEquals(0, extremes.percentile(1));
+		assertEquals(5, extremes.percentile(60));
+		assertEquals(Long.MAX_VALUE, extremes.percentile(100));
+	}
+	
+	/**
+	 * With hashed identifiers, a near-duplicate copies the regions it shares and still gets the output of the plain path
+	 */
+	@Test
+	public void nearDuplicateReuse() throws IOException {
+		final StringBuilder body = new StringBuilder("public class Example {\n");
+		for(int index = 0; index < 40; ++index) {
+			body.append("\tint field").append(suffix(index)).append(" = other").append(suffix(index)).append(".size();\n");
+		}
+		final String first = body+"}\n";
+		final String second = body+"\tString extra = \"extra\";\n}\n";
+		final Path firstSource = writeProject("A.java", first.getBytes(StandardCharsets.UTF_8));
+		final Path secondSource = writeProject("B.java", second.getBytes(StandardCharsets.UTF_8));
+		
+		final JavaAnonymizerStandalone anonymizer = new JavaAnonymizerStandalone(JavaAnonymizerStandalone.MODERN_MATCHER,
+				new JavaAnonymizerStandalone.AnonymizationPolicy(null, null, false, new JavaAnonymizerStandalone.IdentifierHasher()));
+		final JavaAnonymizerStandalone.CorpusMetrics corpus = new JavaAnonymizerStandalone.CorpusMetrics();
+		new JavaAnonymizerStandalone.CorpusAnonymizer(anonymizer, ForkJoinPool.commonPool(), null, null, corpus)
+				.anonymizeCorpus(temp.resolve("corpus"));
+		
+		assertEquals(String.join("\n", anonymizer.anonamize(first.split("\n", -1)))+"\n",
+				Files.readString(firstSource.resolveSibling("class#0.txt")));
+		assertEquals(String.join("\n", anonymizer.anonamize(second.split("\n", -1)))+"\n",
+				Files.readString(secondSource.resolveSibling("class#1.txt")));
+		assertTrue(corpus.reusedLines.max() > 0);
+		
+		//numbered output depends on the whole file above a region
+		assertThrows(IllegalStateException.class, () -> new JavaAnonymizerStandalone().anonymizeReusing(first.split("\n", -1), null, null, null));
+	}
+	
+	/**
+	 * Calls on one thread share its arena, so an unscoped file that grows the lexer's tables
+	 * must not leave them too short for the next scoped file
+	 */
+	@Test
+	public void scopedAfterUnscopedOnOneArena() throws InterruptedException {
+		final JavaAnonymizerStandalone anonymizer = new JavaAnonymizerStandalone();
+		final String[] manyIdentifiers = declarations(200);
+		
+		anonymizer.anonamize(new String[] { "int x = 1;" }, new JavaAnonymizerStandalone.CorpusScope());
+		anonymizer.anonamize(manyIdentifiers);
+		final String[] scoped = anonymizer.anonamize(manyIdentifiers, new JavaAnonymizerStandalone.CorpusScope());
+		
+		//a new thread gets a new arena
+		final String[][] fresh = new String[1][];
+		final Thread thread = new Thread(() -> fresh[0] = anonymizer.anonamize(manyIdentifiers, new JavaAnonymizerStandalone.CorpusScope()));
+		thread.start();
+		thread.join();
+		
+		assertArrayEquals(fresh[0], scoped);
+	}
+	
+	private static JavaAnonymizerStandalone.CorpusAnonymizer cached(final JavaAnonymizerStandalone.AnonymizationCache cache) {
+		return new JavaAnonymizerStandalone.CorpusAnonymizer(new JavaAnonymizerStandalone(), ForkJoinPool.commonPool(), cache);
+	}
+	
+	private static String[] declarations(final int count) {
+		final String[] code = new String[count];
+		for(int index = 0; index < count; ++index) {
+			code[index] = "int value"+index+" = "+index+";";
+		}
+		return code;
+	}
+	
+	private static byte[] fingerprint(final JavaAnonymizerStandalone.IdentifierHasher hasher) {
+		return new JavaAnonymizerStandalone(JavaAnonymizerStandalone.MODERN_MATCHER,
+				new JavaAnonymizerStandalone.AnonymizationPolicy(null, null, false, hasher)).fingerprint();
+	}
+	
+	private Path writeProject(final String name, final byte[] content) throws IOException {
+		final Path dir = Files.createDirectories(temp.resolve("corpus").resolve("project"));
+		return Files.write(dir.resolve(name), content);
+	}
+	
+	/** @return a fixed-width suffix, so file name order is index order */
+	private static String suffix(final int index) {
+		return new String(new char[] { (char) ('a'+index/26), (char) ('a'+index%26) });
+	}
+	
+	private static String[] ids(final String output, final String kind) {
+		final Matcher matcher = Pattern.compile(kind+"\\$(\\d+)").matcher(output);
+		return matcher.results().map(result -> result.group(1)).toArray(String[]::new);
+	}
+	
+	private static byte[] key(final int seed) {
+		final byte[] key = new byte[32];
+		Arrays.fill(key, (byte) seed);
+		return key;
+	}
+}
@@ -0,0 +1,258 @@
+package patternworks.pattern.aiClassify;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import patternworks.pattern.aiClassify.LLMOutputParserStandalone.AI_Classification;
+import patternworks.pattern.aiClassify.LLMOutputParserStandalone.AssistFile;
+import patternworks.pattern.aiClassify.LLMOutputParserStandalone.FileLines;
+import patternworks.pattern.aiClassify.LLMOutputParserStandalone.FileSummary;
+import patternworks.pattern.aiClassify.LLMOutputParserStandalone.LLM;
+import patternworks.pattern.aiClassify.LLMOutputParserStandalone.ParsedFile;
+import patternworks.pattern.aiClassify.LLMOutputParserStandalone.QuantifiedPattern;
+import patternworks.pattern.aiClassify.LLMOutputParserStandalone.ReportWriter;
+import patternworks.pattern.aiClassify.LLMOutputParserStandalone.SummaryKey;
+
+/**
+ * Regression tests for LLMOutputParserStandalone
+ */
+
+public class LLMOutputParserStandaloneTest {
+	private static final String TRANSCRIPT = "Some intro text\n\n### 1. `Foo`\n| Pattern | Confidence | Correctness |\n|---|---|---|\n| None | 87% | 47% |\n"
+			+"\n### 2. `Bar`\n| Pattern | Confidence | Correctness |\n|---|---|---|\n| None (idiom) | 5o% | 10% |\n";
+	
+	@TempDir
+	Path temp;
+	
+	/**
+	 * The hash index builds the same summaries, holding the same classifications in the same order,
+	 * as testing every summary's accepts()
+	 */
+	@Test
+	public void groupByFileMatchesLinearScan() {
+		final List<AI_Classification> answers = answers();
+		
+		//what main() did before the index
+		final List<FileSummary> expected = new ArrayList<FileSummary>();
+		for(final AI_Classification aic: answers) {
+			boolean added = false;
+			for(final FileSummary fs: expected) {
+				if(fs.accepts(aic)) {
+					fs.add(aic);
+					added = true;
+					break;
+				}
+			}
+			if(!added) { expected.add(new FileSummary(aic)); }
+		}
+		
+		for(final boolean parallel: new boolean[] { false, true }) {
+			final Map<SummaryKey, FileSummary> groups = LLMOutputParserStandalone.groupByFile(answers, parallel);
+			assertEquals(expected.size(), groups.size());
+			for(final FileSummary fs: expected) {
+				final FileSummary grouped = groups.get(new SummaryKey(fs));
+				assertEquals(new ArrayList<AI_Classification>(fs), new ArrayList<AI_Classification>(grouped));
+				assertEquals(fs.anonymized, grouped.anonymized);
+			}
+		}
+	}
+	
+	@Test
+	public void summaryKeyEquality() {
+		final SummaryKey key = new SummaryKey("derby", "Foo.java", false);
+		assertEquals(key, new SummaryKey("derby", "Foo.java", false));
+		assertEquals(key.hashCode(), new SummaryKey("derby", "Foo.java", false).hashCode());
+		assertNotEquals(key, new SummaryKey("derby", "Foo.java", true));
+		assertNotEquals(key, new SummaryKey("kafka", "Foo.java", false));
+		assertNotEquals(key, new SummaryKey("derby", "Bar.java", false));
+		assertEquals(key, new SummaryKey(new AI_Classification("derby", "Foo.java", LLM.CLAUDE)));
+	}
+	
+	/**
+	 * A raw file's counterpart is the anonymized summary of the same file, or of its alias;
+	 * alias lines missing a name are skipped
+	 */
+	@Test
+	public void counterpartThroughAliases() throws IOException {
+		final Path aliases = temp.resolve("@aliases.txt");
+		Files.write(aliases, "OldName = NewName\nHalf = \n = Other\nnot an alias\n".getBytes(StandardCharsets.UTF_8));
+		LLMOutputParserStandalone.loadAliases(aliases.toString());
+		
+		assertEquals(new SummaryKey("nifi", "Plain", true), LLMOutputParserStandalone.counterpartKey(new FileSummary("nifi", "Plain", false)));
+		assertEquals(new SummaryKey("nifi", "NewName", true), LLMOutputParserStandalone.counterpartKey(new FileSummary("nifi", "OldName", false)));
+		assertEquals(new SummaryKey("nifi", "FlowFileSupplier", true), LLMOutputParserStandalone.counterpartKey(new FileSummary("nifi", "FlowSupplier", false)));
+		assertEquals(new SummaryKey("nifi", "Half", true), LLMOutputParserStandalone.counterpartKey(new FileSummary("nifi", "Half", false)));
+		
+		//the old scan over every summary: same project, anonymized, same name but for the one hard-coded rename
+		final Map<SummaryKey, FileSummary> groups = LLMOutputParserStandalone.groupByFile(answers(), false);
+		for(final FileSummary fs: groups.values()) {
+			if(fs.anonymized) { continue; }
+			FileSummary expected = null;
+			for(final FileSummary fsa: groups.values()) {
+				if(fsa.anonymized && fsa.project.equals(fs.project) && fsa.filename.equals(fs.filename)) { expected = fsa; }
+			}
+			assertEquals(expected, groups.get(LLMOutputParserStandalone.counterpartKey(fs)));
+		}
+	}
+	
+	/**
+	 * Files parsed in parallel give the same classifications and messages, in file order,
+	 * as parsing them one at a time
+	 */
+	@Test
+	public void parseAllInFileOrder() throws IOException {
+		final List<AssistFile> files = new ArrayList<AssistFile>();
+		for(final String name: new String[] { "derby-claude", "derby-gemini", "kafka-chatgpt", "kafka-copilot" }) {
+			final Path file = temp.resolve(name+".txt");
+			Files.write(file, TRANSCRIPT.getBytes(StandardCharsets.UTF_8));
+			files.add(new AssistFile(file.toString()));
+		}
+		
+		final List<ParsedFile> serial = LLMOutputParserStandalone.parseAll(files, false);
+		final List<ParsedFile> parallel = LLMOutputParserStandalone.parseAll(files, true);
+		assertEquals(files.size(), parallel.size());
+		for(int index = 0; index < files.size(); ++index) {
+			assertEquals(describe(serial.get(index)), describe(parallel.get(index)));
+		}
+		
+		//what process() used to add to ANSWERS and print
+		final ParsedFile first = serial.get(0);
+		assertEquals("derby-claude", first.filename);
+		assertEquals("[Classification of derby::Foo by CLAUDE, Classification of derby::Bar by CLAUDE]", first.answers.toString());
+		assertEquals("[NONE[0.87,0.47]]", Arrays.toString(first.answers.get(0).toArray()));
+		assertEquals(1, first.errors);
+		assertEquals("Analyzing: derby-claude\n", first.log);
+		assertEquals("FileSummary| None (idiom) | 5o% | 10% |\n\n| None (idiom) | 5o% | 10% |\nFor input string: \"5o\"\nAdded: 2\n[Foo, Bar]\n",
+				first.diagnostics);
+	}
+	
+	/**
+	 * Report rows are the lines the old per-row concatenation wrote
+	 */
+	@Test
+	public void reportRowsMatchConcatenation() throws IOException {
+		final FileSummary fs = LLMOutputParserStandalone.groupByFile(answers(), false).get(new SummaryKey("derby", "File1.java", false));
+		fs.computeAll(0.9);
+		final double[] values = { 0.1+0.2, Double.NaN, 1e-7, -0.0, 12345678.9, Double.POSITIVE_INFINITY };
+		final Double missing = null;
+		
+		final Path file = temp.resolve("report.csv");
+		try (final ReportWriter report = new ReportWriter(file.toFile(), "Header,Row")) {
+			fs.writeCSV(report);
+			report.cell(fs.project).cell(fs.filename).cell(fs.anonymized);
+			for(final double value: values) {
+				report.cell(value);
+			}
+			report.cell(missing).cell(Double.valueOf(0.5)).cell("").endRow();
+		}
+		
+		final StringBuilder expected = new StringBuilder("Header,Row\n"+fs.toCSV()+"\n");
+		expected.append(fs.project+","+fs.filename+","+fs.anonymized+",");
+		for(final double value: values) {
+			expected.append(value+",");
+		}
+		expected.append(missing+","+Double.valueOf(0.5)+",\n");
+		assertEquals(expected.toString(), Files.readString(file));
+	}
+	
+	/**
+	 * FileLines splits a file into the lines the old BufferedReader loop read, whatever mix of
+	 * line endings it has, and decodes it as UTF-8 whatever the platform's charset
+	 */
+	@Test
+	public void fileLinesMatchReader() throws IOException {
+		final String[] pieces = { "a", "| None | 87% |", "F\u00f6o", "\u2014", "\ud83d\ude00", " ", "\n", "\r", "\r\n", "\n\n", "\r\r" };
+		final Random random = new Random(25);
+		final Path file = temp.resolve("lines.txt");
+		for(int trial = 0; trial < 500; ++trial) {
+			final StringBuilder text = new StringBuilder();
+			for(int count = random.nextInt(12); count > 0; --count) {
+				text.append(pieces[random.nextInt(pieces.length)]);
+			}
+			Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+			
+			final List<String> lines = new ArrayList<String>();
+			for(final CharSequence line: new FileLines(file.toString())) {
+				lines.add(line.toString());
+			}
+			assertEquals(readerLines(file), lines, text.toString());
+		}
+		
+		Files.write(file, new byte[0]);
+		assertFalse(new FileLines(file.toString()).iterator().hasNext());
+	}
+	
+	/**
+	 * A transcript saved with Windows line endings parses the same as with Unix ones,
+	 * and names outside ASCII survive
+	 */
+	@Test
+	public void transcriptLineEndingsAndNames() throws IOException {
+		final List<AssistFile> files = new ArrayList<AssistFile>();
+		for(final String name: new String[] { "derby-claude", "kafka-claude" }) {
+			final String text = TRANSCRIPT.replace("Foo", "F\u00f6o");
+			final Path file = temp.resolve(name+".txt");
+			Files.write(file, (name.startsWith("derby") ? text : text.replace("\n", "\r\n")).getBytes(StandardCharsets.UTF_8));
+			files.add(new AssistFile(file.toString()));
+		}
+		
+		final List<ParsedFile> parsed = LLMOutputParserStandalone.parseAll(files, false);
+		assertEquals(describe(parsed.get(0)).replace("derby", "kafka"), describe(parsed.get(1)));
+		assertEquals("[Classification of derby::F\u00f6o by CLAUDE, Classification of derby::Bar by CLAUDE]", parsed.get(0).answers.toString());
+	}
+	
+	/** @return the lines the parser read before FileLines, less the null it added for an empty file */
+	private static List<String> readerLines(final Path file) throws IOException {
+		final List<String> lines = new ArrayList<String>();
+		try (final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file.toFile()), StandardCharsets.UTF_8))) {
+			String line;
+			for(line = reader.readLine(); reader.ready(); line = reader.readLine()) {
+				lines.add(line);
+			}
+			if(line != null) { lines.add(line); }
+		}
+		return lines;
+	}
+	
+	/** @return classifications of a few files by every LLM, raw and anonymized, interleaved */
+	private static List<AI_Classification> answers() {
+		final List<AI_Classification> answers = new ArrayList<AI_Classification>();
+		for(int run = 0; run < 3; ++run) {
+			for(final LLM ai: LLM.values()) {
+				for(final String project: new String[] { "derby", "kafka" }) {
+					for(int file = 0; file < 4; ++file) {
+						final double certainty = (run+1) * 0.25;
+						answers.add(new AI_Classification(project, "File"+file+".java", ai, (file+run) % 2 == 0,
+								new QuantifiedPattern((file % 2 == 0) ? PatternType.NONE : PatternType.NON_PATTERN, certainty, 1-certainty)));
+					}
+				}
+			}
+		}
+		return answers;
+	}
+	
+	private static String describe(final ParsedFile parsed) {
+		final StringBuilder text = new StringBuilder(parsed.filename+" "+parsed.errors+"\n"+parsed.log+parsed.diagnostics);
+		for(final AI_Classification aic: parsed.answers) {
+			text.append(aic).append(Arrays.toString(aic.toArray())).append('\n');
+		}
+		return text.toString();
+	}
+}